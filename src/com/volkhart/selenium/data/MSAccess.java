@@ -23,6 +23,8 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a single database and its connection. The connection is opened
@@ -191,6 +193,43 @@ public class MSAccess {
         return ((Integer) getObject(Selection.INT, table, keyColumn, key, column)).intValue();
     }
 
+    /**
+     * Retrieves the given columns of every row in a table as text, so it can
+     * be compared with a grid read from a page.
+     * 
+     * @param table Name of the table being used
+     * @param orderColumn Column by which the rows are sorted
+     * @param columns Columns which contain the data, in the order they should
+     *            appear in each row
+     * @return The rows of the table. Empty if the table cannot be read.
+     */
+    public List<List<String>> getTable(String table, String orderColumn, String... columns) {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        StringBuilder statement = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++) {
+            if (!verifyParameters(table, orderColumn, columns[i])) {
+                return rows;
+            }
+            statement.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        statement.append(" FROM ").append(table).append(" ORDER BY ").append(orderColumn);
+
+        try {
+            ResultSet results = mStatement.executeQuery(statement.toString());
+            while (results.next()) {
+                List<String> row = new ArrayList<String>(columns.length);
+                for (int i = 1; i <= columns.length; i++) {
+                    row.add(results.getString(i));
+                }
+                rows.add(row);
+            }
+            results.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
     private Object getObject(Selection selection, String table, String keyColumn,
             int key, String column) {
         Object toReturn = null;
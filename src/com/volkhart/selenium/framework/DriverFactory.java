@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.volkhart.selenium.framework;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * Starts the browser sessions tests run in. The default,
+ * {@link RemoteDriverFactory}, starts them on a Selenium server or grid;
+ * {@link FakeDriverFactory} simulates them in process for testing the
+ * framework itself.
+ * <p>
+ * Implementations are shared by every test and must be thread safe.
+ *
+ * @author Marius Volkhart
+ * @see Test.Builder#setDriverFactory(DriverFactory)
+ * @see Execution#setDriverFactory(DriverFactory)
+ */
+public interface DriverFactory {
+
+    /**
+     * Starts a new browser session.
+     *
+     * @param capabilities The capabilities of the browser to start.
+     * @return The driver controlling the new session.
+     */
+    WebDriver create(DesiredCapabilities capabilities);
+
+}
@@ -16,12 +16,33 @@
 
 package com.volkhart.selenium.framework;
 
+import com.google.common.base.Preconditions;
+import com.volkhart.selenium.report.CommandMetrics;
+import com.volkhart.selenium.report.LiveServer;
+import com.volkhart.selenium.report.MatrixReport;
+import com.volkhart.selenium.report.Reporter;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides the framework for executing multiple, concurrent tests.
@@ -37,25 +58,149 @@ public class Execution {
     private static CompletionService<Boolean> sCompletionService;
     private static List<Test.Builder> sBuilders = new ArrayList<Test.Builder>();
     private static boolean sStarted = false;
+    private static int sLivePort = -1;
+    private static LiveServer sLiveServer;
+    private static String sMetricsPath;
+    private static int sMaxConcurrent = 0;
+    private static int sMaxPrefetched = 0;
+    private static SessionPrefetcher sPrefetcher;
+    private static RetryPolicy sRetryPolicy = RetryPolicy.NONE;
+    private static String sQuarantinePath;
+    private static Quarantine sQuarantine;
+    private static List<String> sFailures = new ArrayList<String>();
+    private static Map<String, Integer> sBrowserLimits = new HashMap<String, Integer>();
+    private static String sMatrixPath;
+    private static DriverFactory sDriverFactory = new RemoteDriverFactory();
+    private static GridCapacity sGridCapacity;
+
+    /**
+     * How often tests waiting for a free grid slot are offered to the
+     * {@link GridCapacity} again while no test finishes.
+     */
+    private static final long CAPACITY_RETRY_MILLIS = 1000;
+
+    // Sessions that have not been quit yet, ended by the shutdown hook
+    private static final Set<WebDriver> sSessions = Collections
+            .newSetFromMap(new ConcurrentHashMap<WebDriver, Boolean>());
+    private static Thread sShutdownHook;
+
+    // Execution and every running LoadTest share the hook
+    private static int sShutdownHookUsers;
 
     public static void start() {
         setUp();
         sStarted = true;
 
-        // Submit builders on independent threads so thread-local variables are
-        // safe
         for (Test.Builder builder : sBuilders) {
-            sCompletionService.submit(builder);
+            if (builder.mRetryPolicy == null) {
+                builder.mRetryPolicy = sRetryPolicy;
+            }
         }
 
+        // Prefetching follows the queue order, which per-browser limits
+        // reorder, and would take sessions from the limited browser pools
+        if (sMaxConcurrent > 0 && sMaxPrefetched > 0 && sBuilders.size() > sMaxConcurrent
+                && sBrowserLimits.isEmpty() && sGridCapacity == null) {
+            sPrefetcher = new SessionPrefetcher(sBuilders, sMaxConcurrent, sMaxPrefetched);
+            for (Test.Builder builder : sBuilders) {
+                builder.mPrefetcher = sPrefetcher;
+            }
+        }
+
+        Map<Test.Builder, Boolean> completed = new HashMap<Test.Builder, Boolean>();
+        LinkedList<Test.Builder> waiting = new LinkedList<Test.Builder>(sBuilders);
+        Map<Future<Boolean>, Test.Builder> running = new HashMap<Future<Boolean>, Test.Builder>();
+        Map<String, Integer> runningPerBrowser = new HashMap<String, Integer>();
+
+        // Submit builders on independent threads so thread-local variables are
+        // safe
+        submitAllowed(waiting, running, runningPerBrowser);
+
         // Make sure all tests have completed before continuing
-        for (int i = 0, max = sBuilders.size(); i < max; i++) {
+        while (!running.isEmpty() || (!waiting.isEmpty() && sGridCapacity != null)) {
+            Future<Boolean> future;
             try {
-                sCompletionService.take();
+                if (waiting.isEmpty() || sGridCapacity == null) {
+                    future = sCompletionService.take();
+                } else {
+                    // Slots may also be freed by other users of the grid
+                    future = sCompletionService.poll(CAPACITY_RETRY_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
+                continue;
+            }
+            if (future == null) {
+                submitAllowed(waiting, running, runningPerBrowser);
+                continue;
+            }
+
+            Test.Builder builder = running.remove(future);
+            String browser = builder.mCapabilities.getBrowserName();
+            runningPerBrowser.put(browser, Integer.valueOf(count(runningPerBrowser, browser) - 1));
+            if (sGridCapacity != null) {
+                sGridCapacity.release(builder.mCapabilities);
+            }
+            completed.put(builder, Boolean.valueOf(completed(future)));
+            submitAllowed(waiting, running, runningPerBrowser);
+        }
+
+        if (sMatrixPath != null) {
+            MatrixReport matrix = new MatrixReport();
+            for (Test.Builder builder : sBuilders) {
+                matrix.add(builder.mTitle, builder.getBrowser(), completed.get(builder)
+                        .booleanValue(), builder.mFailures, builder.mWarnings,
+                        builder.mReportFile);
+            }
+            try {
+                matrix.write(new File(sMatrixPath));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
+
+        tearDown();
+    }
+
+    /**
+     * Submits every waiting builder whose browser is below its limit and for
+     * which the grid has a free slot.
+     */
+    private static void submitAllowed(List<Test.Builder> waiting,
+            Map<Future<Boolean>, Test.Builder> running, Map<String, Integer> runningPerBrowser) {
+        for (Iterator<Test.Builder> i = waiting.iterator(); i.hasNext();) {
+            Test.Builder builder = i.next();
+            String browser = builder.mCapabilities.getBrowserName();
+            Integer limit = sBrowserLimits.get(browser);
+            int count = count(runningPerBrowser, browser);
+            if ((limit == null || count < limit.intValue())
+                    && (sGridCapacity == null || sGridCapacity.reserve(builder.mCapabilities))) {
+                i.remove();
+                runningPerBrowser.put(browser, Integer.valueOf(count + 1));
+                running.put(sCompletionService.submit(builder), builder);
+            }
+        }
+    }
+
+    private static int count(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        return count == null ? 0 : count.intValue();
+    }
+
+    /**
+     * Returns true if the test behind the future ran to its end.
+     */
+    private static boolean completed(Future<Boolean> future) {
+        try {
+            future.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public static boolean queue(Test.Builder testBuilder) {
@@ -66,14 +211,320 @@ public class Execution {
         return toReturn;
     }
 
+    /**
+     * Queues the test once for every browser. The builder is copied for each
+     * browser, so it can be configured once and its capabilities are not
+     * used.
+     * 
+     * @param testBuilder The test to run.
+     * @param browsers The capabilities of each browser to run it on.
+     * @return true if the tests were queued, false if execution has already
+     *         started.
+     */
+    public static boolean queue(Test.Builder testBuilder, DesiredCapabilities... browsers) {
+        if (sStarted) {
+            return false;
+        }
+        for (DesiredCapabilities browser : browsers) {
+            sBuilders.add(testBuilder.copy(browser));
+        }
+        return true;
+    }
+
+    /**
+     * Limits how many tests run at the same time on one browser, for example
+     * to match the number of nodes for that browser on the grid. Tests of
+     * other browsers start in the meantime. Must be called before
+     * {@link #start()}. Disables session prefetching.
+     * 
+     * @param browserName The browser name, as in
+     *            {@link DesiredCapabilities#getBrowserName()}.
+     * @param max The maximum number of concurrent tests on the browser.
+     */
+    public static void setMaxConcurrentTests(String browserName, int max) {
+        Preconditions.checkArgument(max > 0, "At least one test must be allowed to run");
+        sBrowserLimits.put(browserName, Integer.valueOf(max));
+    }
+
+    /**
+     * Only starts a test once the grid has a free slot for its browser, so
+     * that session requests do not queue up on the hub and time out there.
+     * Tests of browsers with a free slot start in the meantime. Must be
+     * called before {@link #start()}. Disables session prefetching.
+     * 
+     * @param capacity The free slots of the grid, or null to start tests
+     *            regardless.
+     * @see SlotMap
+     * @see GridStatusCapacity
+     */
+    public static void setGridCapacity(GridCapacity capacity) {
+        sGridCapacity = capacity;
+    }
+
+    /**
+     * Sets how browser sessions are started for builders that do not set
+     * their own factory. Defaults to a {@link RemoteDriverFactory}.
+     * 
+     * @see FakeDriverFactory
+     */
+    public static void setDriverFactory(DriverFactory factory) {
+        sDriverFactory = factory;
+    }
+
+    static DriverFactory getDriverFactory() {
+        return sDriverFactory;
+    }
+
+    /**
+     * Records a session that has to be quit if the run is interrupted.
+     */
+    static void sessionStarted(WebDriver driver, DesiredCapabilities capabilities) {
+        sSessions.add(driver);
+        if (sGridCapacity instanceof GridStatusCapacity) {
+            ((GridStatusCapacity) sGridCapacity).sessionStarted(capabilities);
+        }
+    }
+
+    static void sessionEnded(WebDriver driver) {
+        if (driver != null) {
+            sSessions.remove(driver);
+        }
+    }
+
+    /**
+     * Records that a session started with
+     * {@link #sessionStarted(WebDriver, DesiredCapabilities)} was quit.
+     */
+    static void sessionEnded(WebDriver driver, DesiredCapabilities capabilities) {
+        if (driver != null) {
+            sessionEnded(driver);
+            if (sGridCapacity instanceof GridStatusCapacity) {
+                ((GridStatusCapacity) sGridCapacity).sessionEnded(capabilities);
+            }
+        }
+    }
+
+    /**
+     * Makes sure that results are not lost and no sessions are left open on
+     * the grid when the JVM is stopped while tests are still running: every
+     * test that has not finished gets a partial report and every open session
+     * is quit. Every call must be matched by a call to
+     * {@link #removeShutdownHook()}.
+     */
+    static synchronized void installShutdownHook() {
+        sShutdownHookUsers++;
+        if (sShutdownHook != null) {
+            return;
+        }
+        sShutdownHook = new Thread("Execution shutdown") {
+
+            @Override
+            public void run() {
+                System.err.println("Interrupted. Writing partial reports and quitting "
+                        + sSessions.size() + " browser sessions.");
+                Reporter.generatePartialReports();
+                for (WebDriver driver : sSessions) {
+                    try {
+                        driver.quit();
+                    } catch (RuntimeException e) {
+                        // The session is already gone
+                    }
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(sShutdownHook);
+    }
+
+    /**
+     * Removes the hook once everyone that installed it has removed it.
+     */
+    static synchronized void removeShutdownHook() {
+        sShutdownHookUsers = Math.max(0, sShutdownHookUsers - 1);
+        if (sShutdownHook == null || sShutdownHookUsers > 0) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(sShutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, so the hook is running
+        }
+        sShutdownHook = null;
+    }
+
+    /**
+     * Writes a page showing the outcome of every test on every browser side
+     * by side once every test has completed.
+     * 
+     * @param path The file to write to, or null to not write one. Not
+     *            written by default.
+     */
+    public static void setMatrixReport(String path) {
+        sMatrixPath = path;
+    }
+
+    /**
+     * Serves the progress of the tests on http://127.0.0.1:{@code port}/
+     * while they run. Must be called before {@link #start()}.
+     * 
+     * @param port The local port to serve on, 0 for any free port or -1 to
+     *            disable the live report. Disabled by default.
+     * @see LiveServer
+     */
+    public static void setLiveReportPort(int port) {
+        sLivePort = port;
+    }
+
+    /**
+     * Returns the keys of the tests that failed in the last run, leaving out
+     * quarantined tests.
+     * 
+     * @see Test.Builder#getKey()
+     */
+    public static synchronized List<String> getFailedTests() {
+        return new ArrayList<String>(sFailures);
+    }
+
+    /**
+     * Sets when tests that throw an exception are run again with a new
+     * browser. Individual builders may override it. Tests are not retried by
+     * default.
+     * 
+     * @see Test.Builder#setRetryPolicy(RetryPolicy)
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        sRetryPolicy = policy;
+    }
+
+    /**
+     * Keeps a list of flaky tests in the given file across runs. Quarantined
+     * tests still run and are reported, but their failures are not returned
+     * by {@link #getFailedTests()}. Must be called before {@link #start()}.
+     * 
+     * @param path The file the quarantine list is kept in, or null to not
+     *            keep one.
+     */
+    public static void setQuarantineFile(String path) {
+        sQuarantinePath = path;
+    }
+
+    static synchronized boolean isQuarantined(String test) {
+        return sQuarantine != null && sQuarantine.contains(test);
+    }
+
+    /**
+     * Records the final outcome of a test once it will not be retried again.
+     */
+    static synchronized void recordOutcome(String test, int attempts, boolean passed) {
+        if (!passed && !isQuarantined(test)) {
+            sFailures.add(test);
+        }
+        if (sQuarantine != null) {
+            sQuarantine.record(test, attempts, passed);
+        }
+    }
+
+    /**
+     * Limits how many tests run at the same time. Must be called before
+     * {@link #start()}.
+     * 
+     * @param max The maximum number of concurrent tests, or 0 to run every
+     *            queued test at once. Unlimited by default.
+     */
+    public static void setMaxConcurrentTests(int max) {
+        sMaxConcurrent = max;
+    }
+
+    /**
+     * Lets browser sessions for waiting tests be created in the background
+     * while other tests run, so that startup latency is hidden. Only takes
+     * effect when the number of concurrent tests is limited. The number of
+     * sessions actually kept ready adapts to the observed session creation
+     * latency and test duration. Must be called before {@link #start()}.
+     * 
+     * @param max The most sessions to create ahead of time, or 0 to disable.
+     *            Disabled by default.
+     * @see #setMaxConcurrentTests(int)
+     */
+    public static void setMaxPrefetchedSessions(int max) {
+        sMaxPrefetched = max;
+    }
+
+    /**
+     * Writes the latency of the WebDriver commands issued by all tests to a
+     * CSV file once every test has completed.
+     * 
+     * @param path The file to write to, or null to not write one. Not
+     *            written by default.
+     */
+    public static void setMetricsFile(String path) {
+        sMetricsPath = path;
+    }
+
     /**
      * Provides logic that will run before the start of <b>any</b> tests.
      */
     private static void setUp() {
+        installShutdownHook();
 
-        sExecutor = Executors.newCachedThreadPool();
+        sExecutor = sMaxConcurrent > 0 ? Executors.newFixedThreadPool(sMaxConcurrent)
+                : Executors.newCachedThreadPool();
         sCompletionService = new ExecutorCompletionService<Boolean>(sExecutor);
 
+        synchronized (Execution.class) {
+            sFailures.clear();
+            sQuarantine = sQuarantinePath == null ? null : new Quarantine(new File(
+                    sQuarantinePath));
+        }
+
+        if (sLivePort >= 0) {
+            try {
+                sLiveServer = LiveServer.start(sLivePort);
+                System.out.println(String.format("Serving live report on http://127.0.0.1:%1$d/",
+                        sLiveServer.getPort()));
+            } catch (IOException e) {
+                // The live report is a convenience, so never fail the run over it
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Provides logic that will run after <b>all</b> tests have completed.
+     */
+    private static void tearDown() {
+        synchronized (Execution.class) {
+            if (sQuarantine != null) {
+                try {
+                    sQuarantine.save();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Pool threads are not daemons and would keep the JVM alive
+        sExecutor.shutdown();
+
+        if (sPrefetcher != null) {
+            sPrefetcher.shutdown();
+            sPrefetcher = null;
+        }
+
+        if (sMetricsPath != null) {
+            try {
+                CommandMetrics.writeMerged(new File(sMetricsPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (sLiveServer != null) {
+            sLiveServer.stop();
+            sLiveServer = null;
+        }
+
+        Reporter.finishRun();
+        removeShutdownHook();
     }
 
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.volkhart.selenium.framework;
+
+import com.google.common.base.Preconditions;
+import com.volkhart.selenium.report.CommandMetrics;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates browser sessions in process, so that {@link Execution},
+ * {@link Test} and the reporting can be exercised and load tested without a
+ * grid.
+ * <p>
+ * The simulated drivers implement {@link WebDriver}, {@link TakesScreenshot},
+ * {@link JavascriptExecutor} and {@link HasCapabilities}. Every call, on the
+ * driver or on anything it returns, takes the configured latency and is
+ * recorded in {@link CommandMetrics} under its method name. Calls return
+ * neutral values: elements are always found and displayed, scripts return
+ * null and screenshots are a 1x1 image. The current URL and title follow the
+ * last page loaded.
+ * <p>
+ * Failures can be injected: session creation fails with a
+ * {@link SessionNotCreatedException}, and a command fails with an
+ * {@link UnreachableBrowserException} after which its session stays dead, as
+ * when a grid node goes away.
+ *
+ * @author Marius Volkhart
+ */
+public class FakeDriverFactory implements DriverFactory {
+
+    // A 1x1 PNG
+    private static final String SCREENSHOT = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAQAAAC1HAwCAAAAC0lEQVR42mNkYAAA"
+            + "AAYAAjCB0C8AAAAASUVORK5CYII=";
+
+    private static final Class<?>[] DRIVER_INTERFACES = {
+            WebDriver.class, TakesScreenshot.class, JavascriptExecutor.class, HasCapabilities.class
+    };
+
+    private final Random mRandom = new Random();
+    private final AtomicInteger mCreated = new AtomicInteger();
+    private final AtomicInteger mOpen = new AtomicInteger();
+    private final AtomicLong mCommands = new AtomicLong();
+    private volatile long mSessionLatency;
+    private volatile long mCommandLatency;
+    private volatile double mSessionFailureRate;
+    private volatile double mCommandFailureRate;
+
+    /**
+     * Sets how long starting a session takes. Defaults to no delay.
+     */
+    public FakeDriverFactory setSessionLatency(long duration, TimeUnit unit) {
+        mSessionLatency = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets how long every command takes. Defaults to no delay.
+     */
+    public FakeDriverFactory setCommandLatency(long duration, TimeUnit unit) {
+        mCommandLatency = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Sets the probability, from 0 to 1, that starting a session fails.
+     */
+    public FakeDriverFactory setSessionFailureRate(double rate) {
+        mSessionFailureRate = checkRate(rate);
+        return this;
+    }
+
+    /**
+     * Sets the probability, from 0 to 1, that a command fails and takes its
+     * session down with it.
+     */
+    public FakeDriverFactory setCommandFailureRate(double rate) {
+        mCommandFailureRate = checkRate(rate);
+        return this;
+    }
+
+    /**
+     * Returns the number of sessions started so far.
+     */
+    public int getCreatedSessions() {
+        return mCreated.get();
+    }
+
+    /**
+     * Returns the number of sessions started and not quit yet. Anything left
+     * once all tests have finished has leaked.
+     */
+    public int getOpenSessions() {
+        return mOpen.get();
+    }
+
+    /**
+     * Returns the number of commands issued to all sessions so far.
+     */
+    public long getCommandCount() {
+        return mCommands.get();
+    }
+
+    @Override
+    public WebDriver create(DesiredCapabilities capabilities) {
+        sleep(mSessionLatency);
+        if (mRandom.nextDouble() < mSessionFailureRate) {
+            throw new SessionNotCreatedException("Injected session creation failure");
+        }
+        mCreated.incrementAndGet();
+        mOpen.incrementAndGet();
+
+        Session session = new Session(new DesiredCapabilities(capabilities));
+        WebDriver driver = (WebDriver) Proxy.newProxyInstance(
+                FakeDriverFactory.class.getClassLoader(), DRIVER_INTERFACES, session);
+        session.mDriver = driver;
+        return driver;
+    }
+
+    private static double checkRate(double rate) {
+        Preconditions.checkArgument(rate >= 0 && rate <= 1, "Invalid rate %s", rate);
+        return rate;
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException(e);
+        }
+    }
+
+    /**
+     * Handles the calls to a simulated driver and to every object it hands
+     * out.
+     */
+    private class Session implements InvocationHandler {
+
+        private final DesiredCapabilities mCapabilities;
+        private WebDriver mDriver;
+        private volatile String mUrl = "about:blank";
+        private volatile boolean mQuit;
+        private volatile boolean mCrashed;
+
+        private Session(DesiredCapabilities capabilities) {
+            mCapabilities = capabilities;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                } else if ("hashCode".equals(name)) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                return "Fake " + mCapabilities.getBrowserName() + " session";
+            }
+
+            if ("quit".equals(name)) {
+                if (!mQuit) {
+                    mQuit = true;
+                    mOpen.decrementAndGet();
+                }
+                return null;
+            }
+
+            long start = System.nanoTime();
+            try {
+                simulate();
+                return respond(method, args);
+            } finally {
+                CommandMetrics.get().record(name, System.nanoTime() - start);
+            }
+        }
+
+        private void simulate() {
+            mCommands.incrementAndGet();
+            if (mQuit) {
+                throw new WebDriverException("The session has been quit");
+            }
+            sleep(mCommandLatency);
+            if (!mCrashed && mRandom.nextDouble() < mCommandFailureRate) {
+                mCrashed = true;
+            }
+            if (mCrashed) {
+                throw new UnreachableBrowserException("Injected browser failure", null);
+            }
+        }
+
+        private Object respond(Method method, Object[] args) {
+            String name = method.getName();
+            if ("getScreenshotAs".equals(name)) {
+                return ((OutputType<?>) args[0]).convertFromBase64Png(SCREENSHOT);
+            } else if ("getCapabilities".equals(name)) {
+                return mCapabilities;
+            } else if (("get".equals(name) || "to".equals(name)) && args != null
+                    && args[0] != null) {
+                mUrl = args[0].toString();
+                return null;
+            } else if ("getCurrentUrl".equals(name) || "getTitle".equals(name)) {
+                return mUrl;
+            } else if ("getWindowHandle".equals(name)) {
+                return "window";
+            } else if ("getWindowHandles".equals(name)) {
+                return Collections.singleton("window");
+            } else if ("findElements".equals(name)) {
+                return Collections.singletonList(neutral(WebElement.class));
+            }
+            return neutral(method.getReturnType());
+        }
+
+        private Object neutral(Class<?> type) {
+            if (type == Void.TYPE || type == Object.class) {
+                return null;
+            } else if (type == Boolean.TYPE) {
+                return Boolean.TRUE;
+            } else if (type == Integer.TYPE) {
+                return Integer.valueOf(0);
+            } else if (type == Long.TYPE) {
+                return Long.valueOf(0);
+            } else if (type == String.class) {
+                return "";
+            } else if (type == Dimension.class) {
+                return new Dimension(1280, 800);
+            } else if (type == Point.class) {
+                return new Point(0, 0);
+            } else if (type == List.class) {
+                return Collections.emptyList();
+            } else if (type == Set.class) {
+                return Collections.emptySet();
+            } else if (type == Map.class) {
+                return Collections.emptyMap();
+            } else if (type == WebDriver.class) {
+                return mDriver;
+            } else if (type == Capabilities.class) {
+                return mCapabilities;
+            } else if (type.isInterface()) {
+                // Options, Window, Navigation, TargetLocator, WebElement...
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {
+                    type
+                }, this);
+            }
+            return null;
+        }
+    }
+
+}
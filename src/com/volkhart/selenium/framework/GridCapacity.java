@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * Knows how many browser sessions the grid can start, so that
+ * {@link Execution} only starts a test once a slot for its browser is free.
+ * Requesting a session the grid has no room for queues the request on the
+ * hub, where it can wait for minutes and then time out.
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @author Marius Volkhart
+ * @see SlotMap
+ * @see GridStatusCapacity
+ */
+public interface GridCapacity {
+
+    /**
+     * Reserves a slot for a session with the given capabilities, if one is
+     * free. When no slot matches the capabilities at all, waiting would never
+     * help, so implementations return true and let the session request fail.
+     *
+     * @return True if the test may start.
+     */
+    boolean reserve(DesiredCapabilities capabilities);
+
+    /**
+     * Frees a slot reserved with {@link #reserve(DesiredCapabilities)} once
+     * the test that used it has finished.
+     */
+    void release(DesiredCapabilities capabilities);
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the free slots of a grid by polling the status endpoint of its hub,
+ * {@code <hub>/status}, which lists every node with the stereotype of each
+ * of its slots and whether a session is running in it. Slots reserved by
+ * this run are counted as busy until they are released, even while the grid
+ * shows them as free because their session has not started yet. The status is polled again once the poll
+ * interval has passed, or as soon as a test finished.
+ * <p>
+ * When the status cannot be read, or lists no nodes as the hubs of Selenium 2
+ * do, tests are admitted as if there were no limit, so a broken status
+ * endpoint never stalls a run. This is logged once. Nodes that limit
+ * the number of concurrent sessions below their number of slots are
+ * counted per browser, so such a node may be offered more tests than it can
+ * run at once.
+ *
+ * @author Marius Volkhart
+ */
+public class GridStatusCapacity implements GridCapacity {
+
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * Finished tests trigger a poll, but never more often than this.
+     */
+    private static final long MIN_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final URL mStatusUrl;
+    private long mPollIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+    private SlotMap mFree;
+
+    // The reserved slots in which this run has no session at the moment, so
+    // the grid shows them as free, by requested capabilities
+    private final Map<Map<String, ?>, Integer> mPending = new HashMap<Map<String, ?>, Integer>();
+    private boolean mUnlimited;
+    private boolean mPolled;
+    private long mPolledAt;
+    private boolean mStale;
+
+    /**
+     * @param hubUrl The URL of the hub, e.g. {@code http://grid:4444/}.
+     * @throws MalformedURLException If the URL is not valid.
+     */
+    public GridStatusCapacity(String hubUrl) throws MalformedURLException {
+        mStatusUrl = new URL(new URL(hubUrl), "/status");
+    }
+
+    /**
+     * Sets how often the status is polled while no test finishes. Defaults to
+     * 5 seconds.
+     */
+    public synchronized GridStatusCapacity setPollInterval(long interval, TimeUnit unit) {
+        mPollIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    @Override
+    public synchronized boolean reserve(DesiredCapabilities capabilities) {
+        long sincePoll = System.nanoTime() - mPolledAt;
+        if (!mPolled || sincePoll > mPollIntervalNanos
+                || (mStale && sincePoll > MIN_POLL_INTERVAL_NANOS)) {
+            poll();
+        }
+        if (mFree != null && !mFree.reserve(capabilities)) {
+            return false;
+        }
+        addPending(capabilities, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized void release(DesiredCapabilities capabilities) {
+        addPending(capabilities, -1);
+
+        // The grid shows the slot as free once the session is gone
+        mStale = true;
+    }
+
+    /**
+     * Records that a session was started in a reserved slot. The grid shows
+     * the slot as busy from now on.
+     */
+    synchronized void sessionStarted(DesiredCapabilities capabilities) {
+        addPending(capabilities, -1);
+    }
+
+    /**
+     * Records that the session of a reserved slot was quit. The slot stays
+     * reserved until it is released, for example for the next attempt of a
+     * test that is retried.
+     */
+    synchronized void sessionEnded(DesiredCapabilities capabilities) {
+        addPending(capabilities, 1);
+    }
+
+    private void addPending(DesiredCapabilities capabilities, int delta) {
+        Map<String, ?> key = copy(capabilities);
+        Integer count = mPending.get(key);
+        int pending = (count == null ? 0 : count.intValue()) + delta;
+        if (pending > 0) {
+            mPending.put(key, Integer.valueOf(pending));
+        } else {
+            mPending.remove(key);
+        }
+    }
+
+    private static Map<String, ?> copy(DesiredCapabilities capabilities) {
+        return Collections.unmodifiableMap(new HashMap<String, Object>(capabilities.asMap()));
+    }
+
+    private void poll() {
+        try {
+            mFree = parse(readStatus());
+            if (mFree == null) {
+                unlimited("The hub at " + mStatusUrl + " does not list its nodes", null);
+            } else {
+                mUnlimited = false;
+                occupyPending();
+            }
+        } catch (IOException e) {
+            unlimited("Cannot read the status of the hub at " + mStatusUrl, e);
+        } catch (JSONException e) {
+            unlimited("Cannot parse the status of the hub at " + mStatusUrl, e);
+        }
+        mPolled = true;
+        mPolledAt = System.nanoTime();
+        mStale = false;
+    }
+
+    /**
+     * Marks the slots this run reserved but has no session in as busy. Slots
+     * with a session of this run are already busy in the status, as are
+     * those of other users of the grid.
+     */
+    private void occupyPending() {
+        for (Map.Entry<Map<String, ?>, Integer> pending : mPending.entrySet()) {
+            DesiredCapabilities capabilities = new DesiredCapabilities(pending.getKey());
+            for (int i = 0; i < pending.getValue().intValue(); i++) {
+                mFree.reserve(capabilities);
+            }
+        }
+    }
+
+    /**
+     * Admits every test until the status can be read again, logging only the
+     * first failure in a row.
+     */
+    private void unlimited(String message, Exception e) {
+        mFree = null;
+        if (mUnlimited) {
+            return;
+        }
+        mUnlimited = true;
+        System.err.println(message + ". Tests are started without waiting for free slots.");
+        if (e != null) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the JSON served by the status endpoint. Override this to read
+     * the status from elsewhere, for example in tests.
+     */
+    protected String readStatus() throws IOException {
+        URLConnection connection = mStatusUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        InputStream input = connection.getInputStream();
+        try {
+            return CharStreams.toString(new InputStreamReader(input, Charsets.UTF_8));
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Returns the slots of every available node in the status, with those
+     * running a session in use, or null if the status does not list nodes.
+     */
+    static SlotMap parse(String status) throws JSONException {
+        JSONArray nodes = new JSONObject(status).getJSONObject("value").optJSONArray("nodes");
+        if (nodes == null) {
+            return null;
+        }
+        SlotMap slotMap = new SlotMap();
+
+        for (int i = 0; i < nodes.length(); i++) {
+            JSONObject node = nodes.getJSONObject(i);
+            JSONArray slots = node.optJSONArray("slots");
+            if (slots == null || !"UP".equalsIgnoreCase(node.optString("availability", "UP"))) {
+                continue;
+            }
+
+            int busy = 0;
+            for (int j = 0; j < slots.length(); j++) {
+                if (!slots.getJSONObject(j).isNull("session")) {
+                    busy++;
+                }
+            }
+            int available = node.optInt("maxSessions", slots.length()) - busy;
+
+            // Count the free and busy slots of each browser, with no more
+            // free than the node has room for
+            Map<Map<String, Object>, int[]> counts = new HashMap<Map<String, Object>, int[]>();
+            for (int j = 0; j < slots.length(); j++) {
+                JSONObject slot = slots.getJSONObject(j);
+                JSONObject stereotype = slot.optJSONObject("stereotype");
+                if (stereotype != null) {
+                    Map<String, Object> capabilities = toMap(stereotype);
+                    int[] count = counts.get(capabilities);
+                    if (count == null) {
+                        count = new int[2];
+                        counts.put(capabilities, count);
+                    }
+                    if (!slot.isNull("session")) {
+                        count[1]++;
+                    } else if (count[0] < available) {
+                        count[0]++;
+                    }
+                }
+            }
+            for (Map.Entry<Map<String, Object>, int[]> count : counts.entrySet()) {
+                int[] value = count.getValue();
+                slotMap.addSlots(new DesiredCapabilities(count.getKey()), value[0] + value[1],
+                        value[1]);
+            }
+        }
+        return slotMap;
+    }
+
+    private static Map<String, Object> toMap(JSONObject object) throws JSONException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+            String key = (String) keys.next();
+            map.put(key, object.get(key));
+        }
+        return map;
+    }
+
+}
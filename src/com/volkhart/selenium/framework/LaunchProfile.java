@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.base.Preconditions;
+import com.volkhart.selenium.util.Window;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how a browser is launched: with a visible, maximized window, with
+ * a fixed viewport or headless. Where the browser supports it, the window size
+ * and headless mode are requested through the capabilities so that they are
+ * applied when the session is created rather than with an extra resize
+ * round-trip afterwards.
+ * <p>
+ * Chrome receives {@code --headless} and {@code --window-size} arguments and
+ * Firefox receives the equivalent {@code moz:firefoxOptions} arguments. Other
+ * browsers, and older drivers that ignore these arguments, are resized once
+ * the session has started; headless mode then depends on the node.
+ *
+ * @author Marius Volkhart
+ */
+public class LaunchProfile {
+
+    private static final String FIREFOX_OPTIONS = "moz:firefoxOptions";
+
+    /**
+     * A visible window maximized to the screen. This is the default.
+     */
+    public static final LaunchProfile MAXIMIZED = new LaunchProfile(false, null);
+
+    private final boolean mHeadless;
+    private final Dimension mViewport;
+
+    private LaunchProfile(boolean headless, Dimension viewport) {
+        mHeadless = headless;
+        mViewport = viewport;
+    }
+
+    /**
+     * A visible window of a fixed size.
+     */
+    public static LaunchProfile viewport(int width, int height) {
+        return new LaunchProfile(false, checkSize(width, height));
+    }
+
+    /**
+     * A headless browser with a fixed window size.
+     */
+    public static LaunchProfile headless(int width, int height) {
+        return new LaunchProfile(true, checkSize(width, height));
+    }
+
+    public boolean isHeadless() {
+        return mHeadless;
+    }
+
+    /**
+     * Returns a copy of the capabilities with the launch arguments of this
+     * profile added. The given capabilities are not modified.
+     */
+    DesiredCapabilities configure(DesiredCapabilities capabilities) {
+        DesiredCapabilities configured = new DesiredCapabilities(capabilities);
+        if (mViewport == null) {
+            return configured;
+        }
+
+        String browser = capabilities.getBrowserName();
+        if (BrowserType.CHROME.equals(browser)) {
+            List<String> arguments = new ArrayList<String>();
+            if (mHeadless) {
+                arguments.add("--headless");
+            }
+            arguments.add("--window-size=" + mViewport.width + "," + mViewport.height);
+            configured.setCapability(ChromeOptions.CAPABILITY,
+                    addChromeArguments(capabilities.getCapability(ChromeOptions.CAPABILITY),
+                            arguments));
+        } else if (BrowserType.FIREFOX.equals(browser)) {
+            List<String> arguments = new ArrayList<String>();
+            if (mHeadless) {
+                arguments.add("-headless");
+            }
+            arguments.add("--width=" + mViewport.width);
+            arguments.add("--height=" + mViewport.height);
+            configured.setCapability(FIREFOX_OPTIONS,
+                    addArguments(capabilities.getCapability(FIREFOX_OPTIONS), arguments));
+        }
+        return configured;
+    }
+
+    /**
+     * Applies whatever could not be requested through the capabilities once
+     * the session has started.
+     */
+    void apply(WebDriver driver, DesiredCapabilities capabilities) {
+        if (mViewport == null) {
+            Window.maximize(driver);
+            return;
+        }
+
+        String browser = capabilities.getBrowserName();
+        if (!BrowserType.CHROME.equals(browser) && !BrowserType.FIREFOX.equals(browser)) {
+            driver.manage().window().setSize(mViewport);
+        }
+    }
+
+    private static Dimension checkSize(int width, int height) {
+        Preconditions.checkArgument(width > 0 && height > 0, "Invalid viewport %sx%s", width,
+                height);
+        return new Dimension(width, height);
+    }
+
+    private static Object addChromeArguments(Object existing, List<String> arguments) {
+        if (existing instanceof ChromeOptions) {
+            // ChromeOptions cannot be copied and the caller's options may be
+            // shared between threads, so copy what they send instead
+            try {
+                existing = toJava(((ChromeOptions) existing).toJson());
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        return addArguments(existing, arguments);
+    }
+
+    /**
+     * Returns a copy of browser options in their JSON form, {@code args}
+     * included, with the arguments appended.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object addArguments(Object existing, List<String> arguments) {
+        Map<String, Object> options = new HashMap<String, Object>();
+        List<String> merged = new ArrayList<String>();
+        if (existing instanceof Map<?, ?>) {
+            options.putAll((Map<String, Object>) existing);
+            Object args = options.get("args");
+            if (args instanceof List<?>) {
+                merged.addAll((List<String>) args);
+            }
+        }
+        merged.addAll(arguments);
+        options.put("args", merged);
+        return options;
+    }
+
+    /**
+     * Converts JSON objects and arrays into maps and lists.
+     */
+    private static Object toJava(Object json) throws JSONException {
+        if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject) json;
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                map.put(key, toJava(object.get(key)));
+            }
+            return map;
+        } else if (json instanceof JSONArray) {
+            JSONArray array = (JSONArray) json;
+            List<Object> list = new ArrayList<Object>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(toJava(array.get(i)));
+            }
+            return list;
+        }
+        return json;
+    }
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.volkhart.selenium.report.CommandMetrics;
+import com.volkhart.selenium.report.Event;
+import com.volkhart.selenium.report.LatencyHistogram;
+import com.volkhart.selenium.report.Reporter;
+import com.volkhart.selenium.report.Screenshot;
+
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a test as a browser-level load test: a number of virtual users each
+ * run the test over and over, every iteration in a new browser session. Users
+ * are started evenly over the ramp-up period and keep going until the
+ * duration has passed or they ran their number of iterations.
+ * <p>
+ * The latency of an iteration is the time spent in {@link Test#doTest()},
+ * so session creation and report generation do not skew it. An iteration
+ * fails when it throws or reports a failure. The summary, with latency
+ * percentiles and throughput, is written as a report of its own to
+ * {@code <path>/<title>_load/<browser>.html}. The report of each user's last
+ * iteration is kept under {@code <path>/<title>_load/user-<n>}. If the JVM
+ * is stopped during the load test, the reports of the running iterations are
+ * written as partial reports and their sessions quit, as with
+ * {@link Execution}.
+ * <p>
+ * For example, to have 20 users start over a minute and run for ten:
+ *
+ * <pre>
+ * LoadTest.Result result = new LoadTest(new CheckoutTest.Builder(),
+ *         DesiredCapabilities.chrome()).setUsers(20).setRampUp(1, TimeUnit.MINUTES)
+ *         .setDuration(10, TimeUnit.MINUTES).run();
+ * </pre>
+ *
+ * @author Marius Volkhart
+ */
+public class LoadTest {
+
+    private static final double[] PERCENTILES = {
+            50, 90, 95, 99
+    };
+
+    private final Test.Builder mBuilder;
+    private final DesiredCapabilities mCapabilities;
+    private int mUsers = 1;
+    private long mRampUpNanos;
+    private long mDurationNanos;
+    private int mIterations;
+    private long mThinkTimeNanos;
+
+    /**
+     * @param builder The builder of the test to run. It is copied for every
+     *            user, so it is not changed.
+     * @param capabilities The browser to run the test on.
+     */
+    public LoadTest(Test.Builder builder, DesiredCapabilities capabilities) {
+        mBuilder = builder;
+        mCapabilities = capabilities;
+    }
+
+    /**
+     * Sets the number of concurrent users. Defaults to 1.
+     */
+    public LoadTest setUsers(int users) {
+        if (users < 1) {
+            throw new IllegalArgumentException("At least one user is required");
+        }
+        mUsers = users;
+        return this;
+    }
+
+    /**
+     * Sets the time over which users are started. The first user starts
+     * immediately and the last one at the end of this time. Defaults to 0,
+     * which starts every user at once.
+     */
+    public LoadTest setRampUp(long time, TimeUnit unit) {
+        mRampUpNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Sets how long the load test runs, counted from its start. Users finish
+     * the iteration they are in when the time is up.
+     */
+    public LoadTest setDuration(long time, TimeUnit unit) {
+        mDurationNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Sets the number of iterations each user runs. When both a duration and
+     * a number of iterations are set, users stop at whichever comes first.
+     * When neither is set, each user runs once.
+     */
+    public LoadTest setIterations(int iterations) {
+        mIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Sets how long each user pauses between iterations. Defaults to 0.
+     */
+    public LoadTest setThinkTime(long time, TimeUnit unit) {
+        mThinkTimeNanos = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Runs the load test and writes its summary report. Blocks until every
+     * user has finished.
+     *
+     * @return The combined results of all users.
+     */
+    public Result run() throws IOException {
+        int iterations = mIterations == 0 && mDurationNanos == 0 ? 1 : mIterations;
+        long start = System.nanoTime();
+        long deadline = mDurationNanos == 0 ? Long.MAX_VALUE : start + mDurationNanos;
+
+        Execution.installShutdownHook();
+        ExecutorService executor = Executors.newFixedThreadPool(mUsers);
+        List<Future<User>> futures = new ArrayList<Future<User>>(mUsers);
+        try {
+            for (int i = 0; i < mUsers; i++) {
+                long delay = mUsers == 1 ? 0 : mRampUpNanos * i / (mUsers - 1);
+                futures.add(executor.submit(new User(i + 1, start + delay, deadline, iterations)));
+            }
+
+            Result result = new Result(start, start + mRampUpNanos);
+            for (Future<User> future : futures) {
+                try {
+                    result.add(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    // Users catch everything their test throws
+                    e.printStackTrace();
+                }
+            }
+            result.mEnd = System.nanoTime();
+            writeReport(result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+            Reporter.finishRun();
+            Execution.removeShutdownHook();
+        }
+    }
+
+    private String getLoadTitle() {
+        return mBuilder.mTitle + " load";
+    }
+
+    private void writeReport(Result result) throws IOException {
+        Reporter reporter = Reporter.get();
+        try {
+            reporter.setTitle(getLoadTitle());
+            reporter.setOutputPath(mBuilder.mPath);
+            reporter.setBrowser(mBuilder.copy(mCapabilities).getBrowser());
+            reporter.putInfo("Users", Integer.toString(mUsers));
+            reporter.putInfo("Ramp-up", formatSeconds(mRampUpNanos));
+            reporter.putInfo("Duration", formatSeconds(result.getElapsed()));
+            reporter.putInfo("Iterations", Long.toString(result.getIterations()));
+            reporter.putInfo("Failed iterations", Long.toString(result.getFailures()));
+            reporter.putInfo("Throughput", String.format("%.2f iterations/s",
+                    result.getThroughput()));
+            if (result.getSteadyThroughput() > 0) {
+                reporter.putInfo("Throughput after ramp-up", String.format(
+                        "%.2f iterations/s", result.getSteadyThroughput()));
+            }
+
+            reporter.setScript("Load");
+            reporter.setFunction("Latency");
+            reporter.add(new Event("Iterations", describe(result.getLatency()),
+                    Event.Status.DONE));
+            reporter.add(new Event("Session creation", describe(result.getSessionLatency()),
+                    Event.Status.DONE));
+
+            if (!result.mErrors.isEmpty()) {
+                reporter.setFunction("Errors");
+                for (Map.Entry<String, Integer> error : result.mErrors.entrySet()) {
+                    reporter.add(new Event(error.getKey(), error.getValue() + " of "
+                            + result.getIterations() + " iterations", Event.Status.FAIL));
+                }
+            }
+            reporter.generateReport();
+        } finally {
+            Reporter.release();
+            Screenshot.release();
+        }
+    }
+
+    private static String describe(LatencyHistogram histogram) {
+        StringBuilder description = new StringBuilder();
+        description.append(histogram.getCount()).append(" samples. Mean ")
+                .append(formatMillis(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            description.append(", ").append((int) percentile).append("% ")
+                    .append(formatMillis(histogram.getValueAtPercentile(percentile)));
+        }
+        return description.append(", max ").append(formatMillis(histogram.getMax())).toString();
+    }
+
+    private static String formatMillis(long nanos) {
+        return nanos / 1000000 + " ms";
+    }
+
+    private static String formatSeconds(long nanos) {
+        return String.format("%.1f s", nanos / 1e9);
+    }
+
+    /**
+     * A virtual user, which runs iterations of the test on its own thread and
+     * collects their results.
+     */
+    private class User implements Callable<User> {
+
+        private final int mNumber;
+        private final long mStart;
+        private final long mDeadline;
+        private final int mIterations;
+        private final Test.Builder mUserBuilder;
+        private final String mUserPath;
+
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+        private final LatencyHistogram mSessionLatency = new LatencyHistogram();
+        private final List<Long> mFinishTimes = new ArrayList<Long>();
+        private final Map<String, Integer> mErrors = new TreeMap<String, Integer>();
+        private int mFailures;
+
+        private User(int number, long start, long deadline, int iterations) {
+            mNumber = number;
+            mStart = start;
+            mDeadline = deadline;
+            mIterations = iterations;
+            mUserBuilder = mBuilder.copy(mCapabilities);
+            mUserPath = new File(new File(mBuilder.mPath, getLoadTitle().trim().replace(' ',
+                    '_')), "user-" + number).getPath();
+        }
+
+        @Override
+        public User call() throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(mStart - System.nanoTime());
+            for (int i = 0; mIterations == 0 || i < mIterations; i++) {
+                if (System.nanoTime() >= mDeadline) {
+                    break;
+                }
+                if (i > 0) {
+                    TimeUnit.NANOSECONDS.sleep(mThinkTimeNanos);
+                }
+                iterate();
+            }
+            return this;
+        }
+
+        private void iterate() {
+            // Test uses the output path of the thread's Reporter if set
+            Reporter reporter = Reporter.get();
+            reporter.setOutputPath(mUserPath);
+            reporter.putInfo("User", Integer.toString(mNumber));
+            CommandMetrics.get().reset();
+
+            Test test = null;
+            try {
+                long start = System.nanoTime();
+                test = mUserBuilder.build();
+                mSessionLatency.record(System.nanoTime() - start);
+                test.run();
+                mLatency.record(test.mDuration);
+                if (reporter.getFailureCount() > 0) {
+                    mFailures++;
+                    countError("Reported failures");
+                }
+            } catch (Exception e) {
+                mFailures++;
+                countError(e.getClass().getSimpleName());
+            } finally {
+                mFinishTimes.add(Long.valueOf(System.nanoTime()));
+                mUserBuilder.release(test);
+                Reporter.release();
+                Screenshot.release();
+            }
+        }
+
+        private void countError(String error) {
+            Integer count = mErrors.get(error);
+            mErrors.put(error, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+    }
+
+    /**
+     * The combined results of all users of a load test.
+     */
+    public static class Result {
+
+        private final long mStart;
+        private final long mRampUpEnd;
+        private long mEnd;
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+        private final LatencyHistogram mSessionLatency = new LatencyHistogram();
+        private final Map<String, Integer> mErrors = new TreeMap<String, Integer>();
+        private long mIterations;
+        private long mSteadyIterations;
+        private long mFailures;
+
+        private Result(long start, long rampUpEnd) {
+            mStart = start;
+            mRampUpEnd = rampUpEnd;
+        }
+
+        private void add(User user) {
+            mLatency.add(user.mLatency);
+            mSessionLatency.add(user.mSessionLatency);
+            mIterations += user.mFinishTimes.size();
+            mFailures += user.mFailures;
+            for (Long finish : user.mFinishTimes) {
+                if (finish.longValue() > mRampUpEnd) {
+                    mSteadyIterations++;
+                }
+            }
+            for (Map.Entry<String, Integer> error : user.mErrors.entrySet()) {
+                Integer count = mErrors.get(error.getKey());
+                mErrors.put(error.getKey(), Integer.valueOf(error.getValue().intValue()
+                        + (count == null ? 0 : count.intValue())));
+            }
+        }
+
+        /**
+         * Returns the number of iterations run by all users, including failed
+         * ones.
+         */
+        public long getIterations() {
+            return mIterations;
+        }
+
+        /**
+         * Returns the number of iterations that threw or reported a failure.
+         */
+        public long getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * Returns the latency of the iterations that ran to their end.
+         */
+        public LatencyHistogram getLatency() {
+            return mLatency.copy();
+        }
+
+        /**
+         * Returns how long starting a browser session took.
+         */
+        public LatencyHistogram getSessionLatency() {
+            return mSessionLatency.copy();
+        }
+
+        /**
+         * Returns how long the load test ran, in nanoseconds.
+         */
+        public long getElapsed() {
+            return mEnd - mStart;
+        }
+
+        /**
+         * Returns the number of iterations finished per second over the whole
+         * load test.
+         */
+        public double getThroughput() {
+            return mEnd == mStart ? 0 : mIterations * 1e9 / (mEnd - mStart);
+        }
+
+        /**
+         * Returns the number of iterations finished per second once every
+         * user was started, or 0 if the load test ended during ramp-up.
+         */
+        public double getSteadyThroughput() {
+            return mEnd <= mRampUpEnd || mRampUpEnd == mStart ? 0 : mSteadyIterations * 1e9
+                    / (mEnd - mRampUpEnd);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.volkhart.selenium.report.PageTiming;
+import com.volkhart.selenium.report.Reporter;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
+import org.openqa.selenium.support.events.EventFiringWebDriver;
+
+/**
+ * Reads the Navigation and Resource Timing data of the browser after every
+ * navigation and click, and adds it to the current Function of the thread's
+ * {@link Reporter}. A page is only reported once it has finished loading and
+ * only once, however many clicks happen on it, by remembering its
+ * {@code navigationStart}.
+ *
+ * @author Marius Volkhart
+ */
+class PageTimingListener extends AbstractWebDriverEventListener {
+
+    /**
+     * The number of slowest resources reported per page.
+     */
+    private static final int MAX_RESOURCES = 20;
+
+    private long mLastNavigationStart;
+
+    /**
+     * Returns a WebDriver that reports the timing of every page it loads.
+     */
+    static WebDriver wrap(WebDriver driver) {
+        return new EventFiringWebDriver(driver).register(new PageTimingListener());
+    }
+
+    @Override
+    public void afterNavigateTo(String url, WebDriver driver) {
+        capture(driver);
+    }
+
+    @Override
+    public void afterNavigateBack(WebDriver driver) {
+        capture(driver);
+    }
+
+    @Override
+    public void afterNavigateForward(WebDriver driver) {
+        capture(driver);
+    }
+
+    @Override
+    public void afterClickOn(WebElement element, WebDriver driver) {
+        capture(driver);
+    }
+
+    private void capture(WebDriver driver) {
+        PageTiming page = PageTiming.capture(driver, mLastNavigationStart, MAX_RESOURCES);
+        if (page != null) {
+            mLastNavigationStart = page.getNavigationStart();
+            Reporter.get().add(page);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.io.Closeables;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Keeps track of flaky tests across runs. A test that only passes after being
+ * retried, or that keeps failing on infrastructure errors, is quarantined: it
+ * still runs and is reported, but its failures no longer fail the run. It is
+ * released again after passing on the first attempt
+ * {@value #RELEASE_AFTER} runs in a row.
+ * <p>
+ * The list is stored as a properties file mapping each test to the number of
+ * consecutive clean runs it has had since being quarantined.
+ *
+ * @author Marius Volkhart
+ */
+class Quarantine {
+
+    static final int RELEASE_AFTER = 3;
+
+    private final File mFile;
+    private final Properties mTests = new Properties();
+
+    /**
+     * Loads the quarantine list from the file if it exists.
+     */
+    Quarantine(File file) {
+        mFile = file;
+        if (file.isFile()) {
+            InputStream input = null;
+            try {
+                input = new FileInputStream(file);
+                mTests.load(input);
+            } catch (IOException e) {
+                // Start with an empty list rather than failing the run
+                e.printStackTrace();
+            } finally {
+                Closeables.closeQuietly(input);
+            }
+        }
+    }
+
+    synchronized boolean contains(String test) {
+        return mTests.containsKey(test);
+    }
+
+    /**
+     * Records the outcome of a test.
+     *
+     * @param test The key identifying the test.
+     * @param attempts How many attempts the test took.
+     * @param passed Whether the last attempt passed.
+     */
+    synchronized void record(String test, int attempts, boolean passed) {
+        boolean clean = passed && attempts == 1;
+        if (!clean) {
+            // A single failed attempt may be a real bug rather than a flake,
+            // but it still ends the clean streak of a quarantined test
+            if (attempts > 1 || mTests.containsKey(test)) {
+                mTests.setProperty(test, "0");
+            }
+            return;
+        }
+
+        String streak = mTests.getProperty(test);
+        if (streak != null) {
+            int cleanRuns = Integer.parseInt(streak) + 1;
+            if (cleanRuns >= RELEASE_AFTER) {
+                mTests.remove(test);
+            } else {
+                mTests.setProperty(test, Integer.toString(cleanRuns));
+            }
+        }
+    }
+
+    /**
+     * Writes the quarantine list back to its file.
+     */
+    synchronized void save() throws IOException {
+        OutputStream output = new FileOutputStream(mFile);
+        try {
+            mTests.store(output, "Quarantined tests and their consecutive clean runs");
+        } finally {
+            output.close();
+        }
+    }
+
+}
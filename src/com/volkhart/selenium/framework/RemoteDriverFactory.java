@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.volkhart.selenium.framework;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Starts sessions on the Selenium server given by the
+ * {@code webdriver.remote.server} system property, or on localhost:4444. The
+ * latency of every command is recorded in
+ * {@link com.volkhart.selenium.report.CommandMetrics}.
+ *
+ * @author Marius Volkhart
+ */
+public class RemoteDriverFactory implements DriverFactory {
+
+    @Override
+    public WebDriver create(DesiredCapabilities capabilities) {
+        // A null URL makes the executor use the default/system property
+        // server address, just like new RemoteWebDriver(capabilities)
+        return new RemoteWebDriver(new TimingCommandExecutor(new HttpCommandExecutor(null)),
+                capabilities);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.base.Preconditions;
+
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.remote.SessionTerminatedException;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides whether a test that threw an exception is run again with a new
+ * browser. Only failures of the infrastructure are worth retrying, so by
+ * default a test is only retried when the exception, or one of its causes, is
+ * one of the following:
+ * <ul>
+ * <li>{@link UnreachableBrowserException}</li>
+ * <li>{@link SessionNotCreatedException}</li>
+ * <li>{@link SessionTerminatedException}</li>
+ * <li>{@link SocketException} or {@link SocketTimeoutException}</li>
+ * </ul>
+ *
+ * @author Marius Volkhart
+ */
+public class RetryPolicy {
+
+    /**
+     * Never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1);
+
+    private final int mMaxAttempts;
+    private final List<Class<? extends Throwable>> mRetryOn = new ArrayList<Class<? extends Throwable>>();
+
+    /**
+     * @param maxAttempts The number of times a test is run at most, including
+     *            the first attempt.
+     */
+    public RetryPolicy(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 0, "A test must be attempted at least once");
+        mMaxAttempts = maxAttempts;
+        mRetryOn.add(UnreachableBrowserException.class);
+        mRetryOn.add(SessionNotCreatedException.class);
+        mRetryOn.add(SessionTerminatedException.class);
+        mRetryOn.add(SocketException.class);
+        mRetryOn.add(SocketTimeoutException.class);
+    }
+
+    /**
+     * Also retries when the exception, or one of its causes, is of the given
+     * type.
+     */
+    public RetryPolicy retryOn(Class<? extends Throwable> type) {
+        mRetryOn.add(Preconditions.checkNotNull(type));
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Returns true if a test that failed with {@code failure} on the given
+     * attempt should be run again.
+     *
+     * @param failure What the attempt threw.
+     * @param attempt The attempt that failed, starting at 1.
+     */
+    public boolean shouldRetry(Throwable failure, int attempt) {
+        if (attempt >= mMaxAttempts) {
+            return false;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            for (Class<? extends Throwable> type : mRetryOn) {
+                if (type.isInstance(cause)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
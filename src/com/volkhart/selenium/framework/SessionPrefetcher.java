@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Creates browser sessions for queued tests ahead of time, so that a test
+ * usually finds its browser ready when a thread becomes free instead of
+ * waiting for the grid to start one.
+ * <p>
+ * The number of sessions kept ready follows Little's law: tests start at a
+ * rate of roughly {@code concurrency / test duration}, so covering a session
+ * creation latency requires {@code latency * rate} sessions in flight. Both
+ * the latency and the test duration are exponentially weighted averages of
+ * what has been observed so far. The buffer never exceeds the configured
+ * maximum or the number of tests still waiting.
+ *
+ * @author Marius Volkhart
+ */
+class SessionPrefetcher {
+
+    /**
+     * Weight of the newest observation in the moving averages.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final int mConcurrency;
+    private final int mMaxPrefetched;
+    private final List<Test.Builder> mQueue;
+    private final ExecutorService mExecutor;
+    private final Map<Test.Builder, Future<WebDriver>> mPrefetched = new IdentityHashMap<Test.Builder, Future<WebDriver>>();
+    private final Set<Test.Builder> mStarted = Collections
+            .newSetFromMap(new IdentityHashMap<Test.Builder, Boolean>());
+    private int mNext;
+    private double mSessionNanos;
+    private double mTestNanos;
+    private boolean mShutDown;
+
+    /**
+     * @param queue The builders in the order they will be started.
+     * @param concurrency The number of tests that run at the same time.
+     * @param maxPrefetched The most sessions to keep ready at once.
+     */
+    SessionPrefetcher(List<Test.Builder> queue, int concurrency, int maxPrefetched) {
+        mQueue = new ArrayList<Test.Builder>(queue);
+        mConcurrency = concurrency;
+        mMaxPrefetched = maxPrefetched;
+
+        // The first wave of tests starts immediately and creates its own
+        // sessions
+        mNext = Math.min(concurrency, mQueue.size());
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("session-prefetch-%d").build());
+    }
+
+    /**
+     * Returns the session prefetched for the builder, waiting for it if it
+     * is still being created, or null if there is none and the builder has
+     * to create its own.
+     */
+    WebDriver take(Test.Builder builder) {
+        Future<WebDriver> future;
+        synchronized (this) {
+            mStarted.add(builder);
+            future = mPrefetched.remove(builder);
+            refill();
+        }
+
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // Let the builder try again itself
+            return null;
+        }
+    }
+
+    /**
+     * Records how long creating a session took.
+     */
+    synchronized void sessionCreated(long nanos) {
+        mSessionNanos = average(mSessionNanos, nanos);
+    }
+
+    /**
+     * Records how long a test ran once its session was available.
+     */
+    synchronized void testFinished(long nanos) {
+        mTestNanos = average(mTestNanos, nanos);
+        refill();
+    }
+
+    /**
+     * Stops prefetching and quits every session that was never used.
+     */
+    void shutdown() {
+        List<Future<WebDriver>> unused;
+        synchronized (this) {
+            mShutDown = true;
+            unused = new ArrayList<Future<WebDriver>>(mPrefetched.values());
+            mPrefetched.clear();
+        }
+        for (Future<WebDriver> future : unused) {
+            try {
+                WebDriver driver = future.get();
+                Execution.sessionEnded(driver);
+                driver.quit();
+            } catch (Exception e) {
+                // The session never started or is already gone
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    private void refill() {
+        if (mShutDown) {
+            return;
+        }
+        int target = Math.min(mMaxPrefetched, target());
+        while (mPrefetched.size() < target && mNext < mQueue.size()) {
+            final Test.Builder builder = mQueue.get(mNext++);
+            if (mStarted.contains(builder)) {
+                continue;
+            }
+            mPrefetched.put(builder, mExecutor.submit(new Callable<WebDriver>() {
+
+                @Override
+                public WebDriver call() throws Exception {
+                    return builder.createDriver();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns the number of sessions that should be ready or in flight.
+     */
+    private int target() {
+        if (mSessionNanos == 0 || mTestNanos == 0) {
+            // Nothing observed yet; keep one session ahead
+            return 1;
+        }
+        double startsPerNano = mConcurrency / mTestNanos;
+        return Math.max(1, (int) Math.ceil(mSessionNanos * startsPerNano));
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+}
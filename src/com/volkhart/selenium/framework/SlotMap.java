@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.google.common.base.Preconditions;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed set of slots, each described by the capabilities of the browsers
+ * it can start, such as the nodes of a grid that is only used by this run.
+ * A test matches a slot when the browser name is the same and, where the
+ * test asks for them, the version and platform are too.
+ * <p>
+ * For example, for a grid with five Firefox slots and two Internet Explorer 9
+ * slots on Windows:
+ *
+ * <pre>
+ * SlotMap slots = new SlotMap().addSlots(DesiredCapabilities.firefox(), 5);
+ * slots.addSlots(new DesiredCapabilities(&quot;internet explorer&quot;, &quot;9&quot;,
+ *         Platform.WINDOWS), 2);
+ * Execution.setGridCapacity(slots);
+ * </pre>
+ *
+ * @author Marius Volkhart
+ */
+public class SlotMap implements GridCapacity {
+
+    private final List<Slots> mSlots = new ArrayList<Slots>();
+
+    /**
+     * Adds slots for browsers with the given capabilities.
+     *
+     * @param stereotype The capabilities of the browsers the slots start.
+     * @param count The number of slots. 0 records browsers that exist but
+     *            are all busy, so tests for them wait rather than start.
+     */
+    public SlotMap addSlots(Capabilities stereotype, int count) {
+        return addSlots(stereotype, count, 0);
+    }
+
+    /**
+     * Adds slots of which some are already in use.
+     */
+    synchronized SlotMap addSlots(Capabilities stereotype, int count, int used) {
+        Preconditions.checkArgument(count >= 0, "The number of slots cannot be negative");
+        for (Slots slots : mSlots) {
+            if (slots.mStereotype.asMap().equals(stereotype.asMap())) {
+                slots.mTotal += count;
+                slots.mUsed += used;
+                return this;
+            }
+        }
+        Slots slots = new Slots(stereotype, count);
+        slots.mUsed = used;
+        mSlots.add(slots);
+        return this;
+    }
+
+    @Override
+    public synchronized boolean reserve(DesiredCapabilities capabilities) {
+        boolean known = false;
+        for (Slots slots : mSlots) {
+            if (matches(slots.mStereotype, capabilities)) {
+                known = true;
+                if (slots.mUsed < slots.mTotal) {
+                    slots.mUsed++;
+                    return true;
+                }
+            }
+        }
+        return !known;
+    }
+
+    @Override
+    public synchronized void release(DesiredCapabilities capabilities) {
+        for (Slots slots : mSlots) {
+            if (slots.mUsed > 0 && matches(slots.mStereotype, capabilities)) {
+                slots.mUsed--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns true if a slot with the stereotype can start a browser with the
+     * requested capabilities.
+     */
+    static boolean matches(Capabilities stereotype, Capabilities requested) {
+        if (!equalIfRequested(requested.getBrowserName(), stereotype.getBrowserName())) {
+            return false;
+        }
+        Object version = stereotype.getCapability("browserVersion");
+        if (!equalIfRequested(requested.getVersion(), version == null ? stereotype
+                .getVersion() : version.toString())) {
+            return false;
+        }
+
+        Platform platform = requested.getPlatform();
+        if (platform == null || platform == Platform.ANY) {
+            return true;
+        }
+        Platform offered = toPlatform(stereotype.getCapability("platformName"));
+        if (offered == null) {
+            offered = toPlatform(stereotype.getCapability(CapabilityType.PLATFORM));
+        }
+        return offered == null || offered == Platform.ANY || offered.is(platform);
+    }
+
+    private static boolean equalIfRequested(String requested, String offered) {
+        return requested == null || requested.length() == 0 || requested.equals(offered);
+    }
+
+    /**
+     * Returns the platform named by a capability, or null if it is missing or
+     * unknown.
+     */
+    private static Platform toPlatform(Object value) {
+        if (value instanceof Platform) {
+            return (Platform) value;
+        } else if (value == null) {
+            return null;
+        }
+        try {
+            return Platform.valueOf(value.toString().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static class Slots {
+
+        private final Capabilities mStereotype;
+        private int mTotal;
+        private int mUsed;
+
+        private Slots(Capabilities stereotype, int total) {
+            mStereotype = stereotype;
+            mTotal = total;
+        }
+    }
+
+}
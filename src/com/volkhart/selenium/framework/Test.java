@@ -16,19 +16,22 @@
 
 package com.volkhart.selenium.framework;
 
+import com.volkhart.selenium.report.CommandMetrics;
+import com.volkhart.selenium.report.Event;
 import com.volkhart.selenium.report.Reporter;
 import com.volkhart.selenium.report.Screenshot;
-import com.volkhart.selenium.util.Window;
+import com.volkhart.selenium.util.AdaptiveWait;
+import com.volkhart.selenium.util.ElementCache;
+import com.volkhart.selenium.util.WindowRegistry;
 
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.remote.DesiredCapabilities;
-import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.Wait;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides the container for all logic that is executed during a script. Each
@@ -42,6 +45,9 @@ public class Test {
     protected Screenshot mScreenshot;
     protected Wait<WebDriver> mWait;
 
+    // How long doTest took, excluding setup and report generation
+    long mDuration;
+
     public Test(WebDriver driver, String browser, String title, String path) {
         mDriver = driver;
         mReporter = Reporter.get();
@@ -52,15 +58,17 @@ public class Test {
         mScreenshot.setWebDriver(driver);
 
         // Set the maximum wait time here
-        mWait = new WebDriverWait(driver, 10);
+        mWait = new AdaptiveWait(driver, 10, TimeUnit.SECONDS);
     }
 
-    private void run() throws Exception {
+    void run() throws Exception {
 
         // Execute test setup code
         beforeTest();
 
+        long start = System.nanoTime();
         doTest();
+        mDuration = System.nanoTime() - start;
 
         // Execute test close code
         afterTest();
@@ -86,11 +94,28 @@ public class Test {
 
     }
 
-    public static class Builder implements Callable<Boolean> {
+    public static class Builder implements Callable<Boolean>, Cloneable {
 
         protected DesiredCapabilities mCapabilities;
         protected String mTitle;
         protected String mPath;
+        protected LaunchProfile mLaunchProfile = LaunchProfile.MAXIMIZED;
+
+        protected RetryPolicy mRetryPolicy;
+        protected DriverFactory mDriverFactory;
+        protected boolean mPageTimings;
+
+        // Set by Execution when sessions are created ahead of time
+        SessionPrefetcher mPrefetcher;
+        private WebDriver mPrefetchedDriver;
+
+        // The session handed to the test being built, before any wrapping
+        private WebDriver mSession;
+
+        // The outcome of the last call, read by Execution
+        File mReportFile;
+        int mFailures;
+        int mWarnings;
 
         public Builder(String title) {
             mTitle = title;
@@ -104,22 +129,239 @@ public class Test {
             mPath = (new File(path)).getPath();
         }
 
+        /**
+         * Sets how the browser is launched. Defaults to
+         * {@link LaunchProfile#MAXIMIZED}.
+         */
+        public void setLaunchProfile(LaunchProfile profile) {
+            mLaunchProfile = profile;
+        }
+
+        /**
+         * Sets how browser sessions are started. Defaults to the factory set
+         * on {@link Execution}, which starts them on a Selenium server.
+         */
+        public void setDriverFactory(DriverFactory factory) {
+            mDriverFactory = factory;
+        }
+
+        /**
+         * Sets whether the load time of every page the test navigates to or
+         * opens by clicking is added to the report, broken down into the
+         * browser's Navigation Timing phases along with the slowest
+         * resources. This costs a JavaScript call after every navigation and
+         * click. Defaults to false.
+         */
+        public void setPageTimings(boolean enabled) {
+            mPageTimings = enabled;
+        }
+
+        /**
+         * Sets when this test is run again with a new browser after throwing
+         * an exception. Defaults to the policy set on {@link Execution}.
+         */
+        public void setRetryPolicy(RetryPolicy policy) {
+            mRetryPolicy = policy;
+        }
+
+        /**
+         * Returns a copy of this builder that runs the same test on another
+         * browser. Fields of subclasses are copied shallowly.
+         */
+        Builder copy(DesiredCapabilities capabilities) {
+            Builder copy;
+            try {
+                copy = (Builder) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+            copy.mCapabilities = capabilities;
+            copy.mPrefetcher = null;
+            copy.mPrefetchedDriver = null;
+            copy.mSession = null;
+            copy.mReportFile = null;
+            return copy;
+        }
+
+        String getBrowser() {
+            return (mCapabilities.getBrowserName() + " " + mCapabilities.getVersion()).trim();
+        }
+
+        /**
+         * Returns the key identifying this test across runs, made up of its
+         * title and browser.
+         */
+        public String getKey() {
+            return mTitle + " (" + getBrowser() + ")";
+        }
+
         public Test build() {
-            WebDriver driver = new RemoteWebDriver(mCapabilities);
-            Window.maximize(driver);
-            return new Test(driver, mCapabilities.getBrowserName() + " "
-                    + mCapabilities.getVersion(),
-                    mTitle, mPath);
+            WebDriver driver = acquireDriver();
+            return new Test(driver, getBrowser(), mTitle, mPath);
+        }
+
+        /**
+         * Returns the session that was created ahead of time for this
+         * builder, or starts a new one. Subclasses that override
+         * {@link #build()} should get their WebDriver from here.
+         */
+        protected WebDriver acquireDriver() {
+            WebDriver driver = mPrefetchedDriver;
+            mPrefetchedDriver = null;
+            if (driver == null) {
+                driver = createDriver();
+            }
+            mSession = driver;
+            return mPageTimings ? PageTimingListener.wrap(driver) : driver;
+        }
+
+        WebDriver createDriver() {
+            long start = System.nanoTime();
+
+            DriverFactory factory = mDriverFactory == null ? Execution.getDriverFactory()
+                    : mDriverFactory;
+            WebDriver driver = factory.create(mLaunchProfile.configure(mCapabilities));
+            try {
+                mLaunchProfile.apply(driver, mCapabilities);
+            } catch (RuntimeException e) {
+                // Nobody else holds the session yet
+                driver.quit();
+                throw e;
+            }
+            Execution.sessionStarted(driver, mCapabilities);
+
+            if (mPrefetcher != null) {
+                mPrefetcher.sessionCreated(System.nanoTime() - start);
+            }
+            return driver;
         }
 
         protected Test build(Test test) {
             return test;
         }
 
+        /**
+         * Runs the test, retrying it as allowed by its {@link RetryPolicy}.
+         * 
+         * @return True if the test completed without reporting failures.
+         */
         @Override
         public Boolean call() throws Exception {
-            build().run();
-            return null;
+            Reporter reporter = Reporter.get();
+            CommandMetrics.get().reset();
+            try {
+                return callWithRetries(reporter);
+            } finally {
+                // Tests that threw never reached afterTest, and those whose
+                // session could not be started never built a Test
+                if (reporter.getReportFile() == null && reporter.getOutputPath() == null
+                        && mPath != null) {
+                    reporter.setTitle(mTitle);
+                    reporter.setOutputPath(mPath);
+                    reporter.setBrowser(mCapabilities == null ? "" : getBrowser());
+                }
+                if (reporter.getReportFile() == null && reporter.getOutputPath() != null) {
+                    try {
+                        reporter.generateReport();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                mReportFile = reporter.getReportFile();
+                mFailures = reporter.getFailureCount();
+                mWarnings = reporter.getWarningCount();
+
+                // Pooled threads run more than one test
+                Reporter.release();
+                Screenshot.release();
+            }
+        }
+
+        private Boolean callWithRetries(Reporter reporter) throws Exception {
+            RetryPolicy policy = mRetryPolicy == null ? RetryPolicy.NONE : mRetryPolicy;
+            if (Execution.isQuarantined(getKey())) {
+                reporter.putInfo("Quarantined",
+                        "This test is known to be flaky. Its failures do not fail the run.");
+            }
+
+            for (int attempt = 1;; attempt++) {
+                try {
+                    runOnce();
+                } catch (Exception e) {
+                    if (!policy.shouldRetry(e, attempt)) {
+                        reporter.add(new Event("Aborted", "The test threw " + e
+                                + " and did not finish.", Event.Status.FAIL));
+                        Execution.recordOutcome(getKey(), attempt, false);
+                        throw e;
+                    }
+                    // Only the last attempt counts, so its results replace
+                    // those of this one
+                    reporter.discardResults();
+                    reporter.add(new Event("Retry", "Attempt " + attempt + " of "
+                            + policy.getMaxAttempts() + " failed with " + e
+                            + ". Retrying with a new browser.", Event.Status.DONE));
+                    continue;
+                }
+
+                if (attempt > 1) {
+                    reporter.putInfo("Attempts", Integer.toString(attempt));
+                }
+                boolean passed = reporter.getFailureCount() == 0;
+                Execution.recordOutcome(getKey(), attempt, passed);
+                return Boolean.valueOf(passed);
+            }
+        }
+
+        private void runOnce() throws Exception {
+            if (mPrefetcher != null) {
+                mPrefetchedDriver = mPrefetcher.take(this);
+            }
+            Test test = null;
+            try {
+                test = build();
+                long start = System.nanoTime();
+                test.run();
+                if (mPrefetcher != null) {
+                    mPrefetcher.testFinished(System.nanoTime() - start);
+                }
+            } finally {
+                release(test);
+            }
+        }
+
+        /**
+         * Quits the session of a test, whether it finished or threw. Closing
+         * the window in {@link Test#afterTest()} leaves the session open on
+         * the grid, and a browser that threw may be broken, so it is never
+         * reused.
+         */
+        void release(Test test) {
+            // The test's driver may wrap the session, so quit only one
+            if (test != null) {
+                quit(test.mDriver);
+            } else if (mSession != null) {
+                quit(mSession);
+            }
+            Execution.sessionEnded(mSession, mCapabilities);
+            mSession = null;
+
+            // A subclass building its own driver leaves the prefetched
+            // session unused
+            if (mPrefetchedDriver != null) {
+                Execution.sessionEnded(mPrefetchedDriver, mCapabilities);
+                quit(mPrefetchedDriver);
+                mPrefetchedDriver = null;
+            }
+        }
+
+        private static void quit(WebDriver driver) {
+            ElementCache.forget(driver);
+            WindowRegistry.forget(driver);
+            try {
+                driver.quit();
+            } catch (RuntimeException ignored) {
+                // The session is likely gone already
+            }
         }
     }
 
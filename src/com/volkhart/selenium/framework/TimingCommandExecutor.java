@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.framework;
+
+import com.volkhart.selenium.report.CommandMetrics;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+import java.io.IOException;
+
+/**
+ * Decorates the {@link CommandExecutor} of a RemoteWebDriver so that the
+ * round-trip time of every command is recorded in the calling thread's
+ * {@link CommandMetrics}. Instrumenting the wire protocol rather than the
+ * WebDriver interface also covers commands issued by WebElements and by
+ * augmented interfaces such as screenshots.
+ *
+ * @author Marius Volkhart
+ */
+class TimingCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+
+    private final CommandExecutor mDelegate;
+
+    TimingCommandExecutor(CommandExecutor delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return mDelegate.execute(command);
+        } finally {
+            CommandMetrics.get().record(command.getName(), System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void setLocalLogs(LocalLogs logs) {
+        if (mDelegate instanceof NeedsLocalLogs) {
+            ((NeedsLocalLogs) mDelegate).setLocalLogs(logs);
+        }
+    }
+
+}
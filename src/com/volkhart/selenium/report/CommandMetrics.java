@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Collects the latency of WebDriver commands, such as {@code findElement},
+ * {@code clickElement} or {@code screenshot}, in one {@link LatencyHistogram}
+ * per command. Each thread records into its own instance, so the only lock
+ * taken while recording is never contended; {@link #merged()} combines the
+ * instances of all threads.
+ * <p>
+ * Pooled threads run one test after another, so each test starts with
+ * {@link #reset()}: the report of a test only shows its own commands, while
+ * {@link #merged()} still counts those of every test. The instances of
+ * threads that have died are folded into one, so runs that start new pools
+ * do not add up.
+ *
+ * @author Marius Volkhart
+ */
+public class CommandMetrics {
+
+    // The instances of live threads, and what those of dead threads recorded
+    private static final List<CommandMetrics> sAll = new ArrayList<CommandMetrics>();
+    private static final Map<String, LatencyHistogram> sRetired =
+            new TreeMap<String, LatencyHistogram>();
+
+    // Ensure that each thread only has a single CommandMetrics
+    private static ThreadLocal<CommandMetrics> sMetrics = new ThreadLocal<CommandMetrics>() {
+
+        @Override
+        protected CommandMetrics initialValue() {
+            CommandMetrics metrics = new CommandMetrics(Thread.currentThread());
+            synchronized (sAll) {
+                retireDeadThreads();
+                sAll.add(metrics);
+            }
+            return metrics;
+        }
+    };
+
+    private final WeakReference<Thread> mThread;
+
+    // Commands since the last reset, and those before it
+    private final Map<String, LatencyHistogram> mHistograms = new TreeMap<String, LatencyHistogram>();
+    private final Map<String, LatencyHistogram> mEarlier = new TreeMap<String, LatencyHistogram>();
+
+    // Need private constructor to avoid instantiation
+    private CommandMetrics(Thread thread) {
+        mThread = new WeakReference<Thread>(thread);
+    }
+
+    /**
+     * Returns the thread-local instance of CommandMetrics.
+     *
+     * @return Thread-local CommandMetrics instance
+     */
+    public static CommandMetrics get() {
+        return sMetrics.get();
+    }
+
+    /**
+     * Returns the latencies recorded by all threads combined, keyed by
+     * command name.
+     */
+    public static SortedMap<String, LatencyHistogram> merged() {
+        SortedMap<String, LatencyHistogram> merged = new TreeMap<String, LatencyHistogram>();
+        synchronized (sAll) {
+            retireDeadThreads();
+            addAll(merged, sRetired);
+            for (CommandMetrics metrics : sAll) {
+                synchronized (metrics) {
+                    addAll(merged, metrics.mEarlier);
+                    addAll(merged, metrics.mHistograms);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Folds the instances of threads that have died into {@code sRetired}.
+     * Must be called with the lock on {@code sAll} held.
+     */
+    private static void retireDeadThreads() {
+        for (Iterator<CommandMetrics> i = sAll.iterator(); i.hasNext();) {
+            CommandMetrics metrics = i.next();
+            Thread thread = metrics.mThread.get();
+            if (thread == null || !thread.isAlive()) {
+                synchronized (metrics) {
+                    addAll(sRetired, metrics.mEarlier);
+                    addAll(sRetired, metrics.mHistograms);
+                }
+                i.remove();
+            }
+        }
+    }
+
+    private static void addAll(Map<String, LatencyHistogram> to,
+            Map<String, LatencyHistogram> from) {
+        for (Map.Entry<String, LatencyHistogram> entry : from.entrySet()) {
+            LatencyHistogram histogram = to.get(entry.getKey());
+            if (histogram == null) {
+                to.put(entry.getKey(), entry.getValue().copy());
+            } else {
+                histogram.add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the merged latencies of all threads to a CSV file.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeMerged(File file) throws IOException {
+        write(merged(), file);
+    }
+
+    /**
+     * Records how long a command took.
+     *
+     * @param command The WebDriver command name.
+     * @param nanos The latency in nanoseconds.
+     */
+    public synchronized void record(String command, long nanos) {
+        LatencyHistogram histogram = mHistograms.get(command);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            mHistograms.put(command, histogram);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Starts recording the commands of a new test. What was recorded so far
+     * is left out of {@link #snapshot()} but kept for {@link #merged()}.
+     */
+    public synchronized void reset() {
+        addAll(mEarlier, mHistograms);
+        mHistograms.clear();
+    }
+
+    /**
+     * Returns a copy of the latencies recorded by this thread since the last
+     * {@link #reset()}, keyed by command name.
+     */
+    public synchronized SortedMap<String, LatencyHistogram> snapshot() {
+        SortedMap<String, LatencyHistogram> copy = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    static void write(SortedMap<String, LatencyHistogram> histograms, File file)
+            throws IOException {
+        StringBuilder builder = new StringBuilder(
+                "command,count,min_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms,total_ms\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(entry.getKey()).append(',');
+            builder.append(histogram.getCount()).append(',');
+            appendMillis(builder, histogram.getMin()).append(',');
+            appendMillis(builder, histogram.getMean()).append(',');
+            appendMillis(builder, histogram.getValueAtPercentile(50)).append(',');
+            appendMillis(builder, histogram.getValueAtPercentile(90)).append(',');
+            appendMillis(builder, histogram.getValueAtPercentile(99)).append(',');
+            appendMillis(builder, histogram.getMax()).append(',');
+            appendMillis(builder, histogram.getTotal()).append('\n');
+        }
+        Files.write(builder, file, Charsets.UTF_8);
+    }
+
+    private static StringBuilder appendMillis(StringBuilder builder, long nanos) {
+        long micros = nanos / 1000;
+        builder.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            builder.append('0');
+        }
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+}
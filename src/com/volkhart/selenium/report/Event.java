@@ -18,7 +18,6 @@ package com.volkhart.selenium.report;
 
 import com.google.common.base.Preconditions;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +33,7 @@ public class Event {
     private final Status mStatus;
     private final List<String> mStackTrace;
     private final String mScreenshotFilePath;
+    private final long mTimestamp;
 
     public static enum Status {
         PASS, DONE, WARNING, FAIL
@@ -49,27 +49,17 @@ public class Event {
      */
     public Event(String title, String message, Status status) {
 
-        mTitle = Preconditions.checkNotNull(title);
-        mMessage = Preconditions.checkNotNull(message);
+        mTimestamp = System.nanoTime();
+        mTitle = SymbolTable.intern(Preconditions.checkNotNull(title));
+        mMessage = SymbolTable.intern(Preconditions.checkNotNull(message));
         mStatus = status;
 
         // Only record screenshots and stack traces for failures & warnings
         if (status == Status.FAIL || status == Status.WARNING) {
             mScreenshotFilePath = Screenshot.get().take();
 
-            // Turn the StackTrace into a String[] for smaller footprint &
-            // easier handling.
-            StackTraceElement[] elements = Thread.currentThread().getStackTrace();
-            int elementsSize = elements.length - 1;
-            mStackTrace = new ArrayList<String>();
-            for (int i = 0; i < elementsSize; i++) {
-                String trace = elements[i + 1].toString();
-                if (!trace.startsWith("java.")
-                        && !trace.startsWith("com.volkhart.selenium.framework")) {
-                    mStackTrace.add(trace);
-                }
-
-            }
+            // Events raised from the same place share their stack trace
+            mStackTrace = SymbolTable.stackTrace(Thread.currentThread().getStackTrace());
         } else {
             mScreenshotFilePath = null;
             mStackTrace = null;
@@ -77,6 +67,19 @@ public class Event {
 
     }
 
+    /**
+     * Recreates an Event read back from an {@link EventJournal}.
+     */
+    Event(String title, String message, Status status, String screenshotFilePath,
+            List<String> stackTrace, long timestamp) {
+        mTitle = Preconditions.checkNotNull(title);
+        mMessage = Preconditions.checkNotNull(message);
+        mStatus = status;
+        mScreenshotFilePath = screenshotFilePath;
+        mStackTrace = stackTrace;
+        mTimestamp = timestamp;
+    }
+
     Status getStatus() {
         return mStatus;
     }
@@ -89,6 +92,10 @@ public class Event {
         return mTitle;
     }
 
+    boolean hasStackTrace() {
+        return mStackTrace != null;
+    }
+
     String[] getStackTrace() {
         return mStackTrace.toArray(new String[0]);
     }
@@ -97,4 +104,12 @@ public class Event {
         return mScreenshotFilePath;
     }
 
+    /**
+     * Returns the {@link System#nanoTime()} at which this Event was created.
+     * Only meaningful relative to other timestamps in the same JVM.
+     */
+    long getTimestamp() {
+        return mTimestamp;
+    }
+
 }
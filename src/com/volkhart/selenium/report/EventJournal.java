@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact binary log of everything added to a {@link Reporter}, from which
+ * the report can be generated again later without re-running the test.
+ * <p>
+ * A journal starts with a 4 byte magic number and a flags byte, optionally
+ * followed by a deflate stream. The rest is a sequence of records, each made
+ * up of a type byte, a varint payload length and the payload. Readers skip
+ * records of unknown types. Strings are written once, in a record of their
+ * own, and referred to by index afterwards, so repeated titles, messages and
+ * stack frames cost a byte or two each. Timestamps are stored as the
+ * difference to the previous timestamp.
+ * <p>
+ * A journal that was cut short, for example because the JVM died, can still
+ * be read up to the last complete record that reached the file. Records are
+ * buffered, so those written since the last flush are lost.
+ *
+ * @author Marius Volkhart
+ */
+final class EventJournal {
+
+    private static final int MAGIC = 0x53554a31; // "SUJ1"
+    private static final int FLAG_DEFLATE = 1;
+
+    private static final byte STRING = 1;
+    private static final byte TITLE = 2;
+    private static final byte BROWSER = 3;
+    private static final byte INFO = 4;
+    private static final byte SCRIPT = 5;
+    private static final byte FUNCTION = 6;
+    private static final byte EVENT = 7;
+    private static final byte END = 8;
+    private static final byte PAGE = 9;
+    private static final byte DISCARD = 10;
+
+    private static final Event.Status[] STATUSES = Event.Status.values();
+
+    private final OutputStream mOutput;
+    private final Map<String, Integer> mStrings = new HashMap<String, Integer>();
+    private final Record mRecord = new Record();
+    private long mLastTimestamp;
+
+    /**
+     * Opens a new journal, replacing the file if it exists.
+     *
+     * @param file The file to write to.
+     * @param compress Whether to deflate the journal.
+     */
+    EventJournal(File file, boolean compress) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[] {
+                    (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8),
+                    (byte) MAGIC, (byte) (compress ? FLAG_DEFLATE : 0)
+            });
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+        if (compress) {
+            // Sync flushing makes flush() write out what the deflater holds,
+            // so a journal cut short can be read up to its last flush
+            output = new DeflaterOutputStream(output, true);
+        }
+        mOutput = new BufferedOutputStream(output, 32 * 1024);
+    }
+
+    void title(String title) throws IOException {
+        int id = intern(title);
+        mRecord.writeVarint(id);
+        mRecord.writeTo(mOutput, TITLE);
+    }
+
+    void browser(String browser) throws IOException {
+        int id = intern(browser);
+        mRecord.writeVarint(id);
+        mRecord.writeTo(mOutput, BROWSER);
+    }
+
+    void info(String key, String value) throws IOException {
+        int keyId = intern(key);
+        int valueId = intern(value);
+        mRecord.writeVarint(keyId);
+        mRecord.writeVarint(valueId);
+        mRecord.writeTo(mOutput, INFO);
+    }
+
+    void script(Script script) throws IOException {
+        int id = intern(script.getName());
+        mRecord.writeVarint(id);
+        writeTimestamp(script.getStart());
+        mRecord.writeTo(mOutput, SCRIPT);
+    }
+
+    void function(Function function) throws IOException {
+        int id = intern(function.getName());
+        mRecord.writeVarint(id);
+        writeTimestamp(function.getStart());
+        mRecord.writeTo(mOutput, FUNCTION);
+    }
+
+    void event(Event event) throws IOException {
+        // Strings have to be defined before the record that uses them
+        int title = intern(event.getTitle());
+        int message = intern(event.getMessage());
+        int screenshot = intern(event.getScreenshotFilePath());
+        String[] frames = event.hasStackTrace() ? event.getStackTrace() : new String[0];
+        int[] frameIds = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            frameIds[i] = intern(frames[i]);
+        }
+
+        mRecord.write(event.getStatus().ordinal());
+        mRecord.writeVarint(title);
+        mRecord.writeVarint(message);
+        mRecord.writeVarint(screenshot);
+        writeTimestamp(event.getTimestamp());
+        mRecord.writeVarint(frameIds.length);
+        for (int frameId : frameIds) {
+            mRecord.writeVarint(frameId);
+        }
+        mRecord.writeTo(mOutput, EVENT);
+    }
+
+    void page(PageTiming page) throws IOException {
+        // Strings have to be defined before the record that uses them
+        int url = intern(page.getUrl());
+        List<PageTiming.Resource> resources = page.getResources();
+        int[] resourceIds = new int[resources.size() * 2];
+        for (int i = 0; i < resources.size(); i++) {
+            resourceIds[i * 2] = intern(resources.get(i).getName());
+            resourceIds[i * 2 + 1] = intern(resources.get(i).getType());
+        }
+
+        mRecord.writeVarint(url);
+        mRecord.writeVarint(page.getTotal());
+        for (int i = 0; i < PageTiming.PHASES.length; i++) {
+            mRecord.writeVarint(page.getPhase(i));
+        }
+        mRecord.writeVarint(resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            mRecord.writeVarint(resourceIds[i * 2]);
+            mRecord.writeVarint(resourceIds[i * 2 + 1]);
+            mRecord.writeVarint(resources.get(i).getDuration());
+        }
+        mRecord.writeTo(mOutput, PAGE);
+    }
+
+    /**
+     * Records that everything before this was discarded.
+     */
+    void discard() throws IOException {
+        mRecord.writeTo(mOutput, DISCARD);
+    }
+
+    /**
+     * Records when the last Script ended and closes the journal.
+     */
+    void close(long nanoTime) throws IOException {
+        try {
+            writeTimestamp(nanoTime);
+            mRecord.writeTo(mOutput, END);
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    void flush() throws IOException {
+        mOutput.flush();
+    }
+
+    private void writeTimestamp(long timestamp) {
+        long delta = timestamp - mLastTimestamp;
+        mLastTimestamp = timestamp;
+        mRecord.writeVarint((delta << 1) ^ (delta >> 63));
+    }
+
+    /**
+     * Returns the index of the string, defining it first if it has not been
+     * written yet. Index 0 stands for null.
+     */
+    private int intern(String string) throws IOException {
+        if (string == null) {
+            return 0;
+        }
+        Integer id = mStrings.get(string);
+        if (id == null) {
+            id = Integer.valueOf(mStrings.size() + 1);
+            mStrings.put(string, id);
+            mRecord.write(string.getBytes(Charsets.UTF_8));
+            mRecord.writeTo(mOutput, STRING);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Reads a journal back into a Reporter.
+     *
+     * @param file The journal to read.
+     * @param reporter The Reporter to add the journal's contents to.
+     * @throws IOException If the file cannot be read or is not a journal.
+     */
+    static void read(File file, Reporter reporter) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            DataInputStream header = new DataInputStream(input);
+            if (header.readInt() != MAGIC) {
+                throw new IOException(file + " is not an event journal");
+            }
+            boolean compressed = (header.readByte() & FLAG_DEFLATE) != 0;
+            InputStream body = new BufferedInputStream(compressed ? new InflaterInputStream(
+                    input) : input, 32 * 1024);
+            new Reader(new DataInputStream(body), reporter).read();
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Replays the records of a journal into a Reporter.
+     */
+    private static class Reader {
+
+        private final DataInputStream mInput;
+        private final Reporter mReporter;
+        private final List<String> mStrings = new ArrayList<String>();
+        private byte[] mPayload = new byte[256];
+        private int mPosition;
+        private int mLength;
+        private long mLastTimestamp;
+
+        private Reader(DataInputStream input, Reporter reporter) {
+            mInput = input;
+            mReporter = reporter;
+
+            // Index 0 stands for null
+            mStrings.add(null);
+        }
+
+        private void read() throws IOException {
+            while (true) {
+                int type;
+                try {
+                    // A deflated journal that was cut short ends with an
+                    // EOFException rather than -1
+                    type = mInput.read();
+                    if (type < 0) {
+                        return;
+                    }
+                    readPayload();
+                } catch (EOFException e) {
+                    // The journal was cut short; keep what was complete
+                    return;
+                }
+
+                switch (type) {
+                    case STRING:
+                        mStrings.add(new String(mPayload, 0, mLength, Charsets.UTF_8));
+                        break;
+                    case TITLE:
+                        mReporter.setTitle(readString());
+                        break;
+                    case BROWSER:
+                        mReporter.setBrowser(readString());
+                        break;
+                    case INFO:
+                        mReporter.putInfo(readString(), readString());
+                        break;
+                    case SCRIPT:
+                        mReporter.restore(new Script(readString(), readTimestamp()));
+                        break;
+                    case FUNCTION:
+                        mReporter.restore(new Function(readString(), readTimestamp()));
+                        break;
+                    case EVENT:
+                        mReporter.restore(readEvent());
+                        break;
+                    case PAGE:
+                        mReporter.add(readPage());
+                        break;
+                    case DISCARD:
+                        mReporter.discardResults();
+                        break;
+                    case END:
+                        mReporter.finishScript(readTimestamp());
+                        break;
+                    default:
+                        // Written by a newer version; skip it
+                        break;
+                }
+            }
+        }
+
+        private Event readEvent() throws IOException {
+            Event.Status status = STATUSES[mPayload[mPosition++]];
+            String title = readString();
+            String message = readString();
+            String screenshot = readString();
+            long timestamp = readTimestamp();
+            int frameCount = (int) readVarint();
+
+            // Failures raised from inside the framework may have no frames
+            // left, and the report expects a stack trace for every failure
+            String[] frames = new String[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                frames[i] = readString();
+            }
+            return new Event(title, message, status, screenshot, Arrays.asList(frames),
+                    timestamp);
+        }
+
+        private PageTiming readPage() throws IOException {
+            String url = readString();
+            long total = readVarint();
+            long[] phases = new long[PageTiming.PHASES.length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = readVarint();
+            }
+            PageTiming page = new PageTiming(url, phases, total);
+            int resourceCount = (int) readVarint();
+            for (int i = 0; i < resourceCount; i++) {
+                page.addResource(readString(), readString(), readVarint());
+            }
+            return page;
+        }
+
+        private void readPayload() throws IOException {
+            int length = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = mInput.readUnsignedByte();
+                length |= (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+            }
+            if (length > mPayload.length) {
+                mPayload = new byte[Math.max(length, mPayload.length * 2)];
+            }
+            mInput.readFully(mPayload, 0, length);
+            mPosition = 0;
+            mLength = length;
+        }
+
+        private String readString() throws IOException {
+            long id = readVarint();
+            if (id >= mStrings.size()) {
+                throw new IOException("Corrupt journal: undefined string " + id);
+            }
+            return mStrings.get((int) id);
+        }
+
+        private long readTimestamp() throws IOException {
+            long zigzag = readVarint();
+            mLastTimestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+            return mLastTimestamp;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                if (mPosition >= mLength) {
+                    throw new IOException("Corrupt journal: record ended early");
+                }
+                int b = mPayload[mPosition++] & 0xff;
+                value |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * The payload of the record being written. It is buffered so that its
+     * length can be written ahead of it.
+     */
+    private static class Record extends ByteArrayOutputStream {
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        @Override
+        public void write(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        void writeTo(OutputStream output, byte type) throws IOException {
+            output.write(type);
+            int length = count;
+            while ((length & ~0x7f) != 0) {
+                output.write((length & 0x7f) | 0x80);
+                length >>>= 7;
+            }
+            output.write(length);
+            output.write(buf, 0, count);
+            reset();
+        }
+    }
+
+}
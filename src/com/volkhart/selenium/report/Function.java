@@ -17,9 +17,10 @@
 package com.volkhart.selenium.report;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Provides a low-level way of separating test steps and grouping multiple
@@ -31,60 +32,96 @@ public class Function {
 
     static final String DEFAULT_TITLE = "Default Function Title";
 
-    private int mFailures;
-    private int mWarnings;
-    private int mPasses;
-    private ArrayList<Event> mEvents;
+    private final StatusCounts mCounts = new StatusCounts();
+    private final ArrayList<Event> mEvents = new ArrayList<Event>();
+    private final List<Event> mEventsView = Collections.unmodifiableList(mEvents);
+    private List<PageTiming> mPages = Collections.emptyList();
     private final String mName;
+    private final long mStart;
+    private long mEnd;
 
     Function(String name) {
+        this(name, System.nanoTime());
+    }
+
+    /**
+     * @param start The {@link System#nanoTime()} at which the Function
+     *            started.
+     */
+    Function(String name, long start) {
 
         // Check for null since name won't be used until report is written at
         // which point failure will be untimely and hard to trace
         mName = Preconditions.checkNotNull(name);
-        mFailures = 0;
-        mWarnings = 0;
-        mPasses = 0;
-        mEvents = new ArrayList<Event>();
+        mStart = start;
     }
 
-    boolean add(Event event) {
-        switch (event.getStatus()) {
-            case FAIL:
-                mFailures++;
-                break;
-            case WARNING:
-                mWarnings++;
-                break;
-            case PASS:
-                mPasses++;
-                break;
-            default:
-                // Intentionally do nothing as we don't maintain a done counter
-                break;
+    /**
+     * Marks the end of this Function. Only the first call has an effect.
+     */
+    void finish(long nanoTime) {
+        if (mEnd == 0) {
+            mEnd = nanoTime;
         }
+    }
 
+    boolean add(Event event) {
+        mCounts.count(event.getStatus());
         return mEvents.add(event);
     }
 
+    void add(PageTiming page) {
+        // Most functions never load a page
+        if (mPages.isEmpty()) {
+            mPages = new ArrayList<PageTiming>(2);
+        }
+        mPages.add(page);
+    }
+
     int getFailureCount() {
-        return mFailures;
+        return mCounts.get(Event.Status.FAIL);
     }
 
     int getWarningCount() {
-        return mWarnings;
+        return mCounts.get(Event.Status.WARNING);
     }
 
     int getPassCount() {
-        return mPasses;
+        return mCounts.get(Event.Status.PASS);
     }
 
     String getName() {
         return mName;
     }
 
-    Iterable<Event> getEvents() {
-        return ImmutableList.copyOf(mEvents);
+    /**
+     * Returns a read-only view of the events. The view is not a copy, so it
+     * must not be iterated while events are being added.
+     */
+    List<Event> getEvents() {
+        return mEventsView;
+    }
+
+    /**
+     * Returns the pages loaded during this Function.
+     */
+    List<PageTiming> getPages() {
+        return Collections.unmodifiableList(mPages);
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which this Function started.
+     */
+    long getStart() {
+        return mStart;
+    }
+
+    /**
+     * Returns how long this Function ran in nanoseconds. Functions that have
+     * not been finished are measured up until now.
+     */
+    long getDuration() {
+        return (mEnd == 0 ? System.nanoTime() : mEnd) - mStart;
     }
 
     int size() {
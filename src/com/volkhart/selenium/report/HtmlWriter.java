@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes UTF-8 encoded HTML straight into a {@link FileChannel}. Static
+ * fragments are expected to be encoded once up front (see {@link Template})
+ * and are copied into the buffer in bulk, while dynamic text is encoded
+ * directly into the buffer without intermediate Strings.
+ *
+ * @author Marius Volkhart
+ */
+final class HtmlWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] LT = "&lt;".getBytes(Charsets.UTF_8);
+    private static final byte[] AMP = "&amp;".getBytes(Charsets.UTF_8);
+    private static final byte[] BR = "<br/>".getBytes(Charsets.UTF_8);
+
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+
+    HtmlWriter(File file) throws IOException {
+        mStream = new FileOutputStream(file);
+        mChannel = mStream.getChannel();
+        mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes pre-encoded bytes. Fragments larger than the buffer bypass it.
+     */
+    void write(byte[] bytes) throws IOException {
+        if (bytes.length > mBuffer.remaining()) {
+            flush();
+            if (bytes.length > mBuffer.capacity()) {
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    mChannel.write(wrapped);
+                }
+                return;
+            }
+        }
+        mBuffer.put(bytes);
+    }
+
+    /**
+     * Writes the text as-is. The caller is responsible for it being valid
+     * HTML.
+     */
+    void write(String text) throws IOException {
+        write(text, 0, text.length());
+    }
+
+    void write(int value) throws IOException {
+        write(Integer.toString(value));
+    }
+
+    void write(long value) throws IOException {
+        write(Long.toString(value));
+    }
+
+    /**
+     * Writes the text escaping markup characters, converting new lines to
+     * breaks and characters outside of Latin-1 to numeric entities.
+     * Unescaped runs between special characters are written in bulk.
+     */
+    void writeEscaped(String text) throws IOException {
+        int start = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '<' || c == '&' || c == '\n' || c > 255) {
+                write(text, start, i);
+                start = i + 1;
+                if (c == '<') {
+                    write(LT);
+                } else if (c == '&') {
+                    write(AMP);
+                } else if (c == '\n') {
+                    write(BR);
+                } else {
+                    write("&#");
+                    write((int) c);
+                    write(";");
+                }
+            }
+        }
+        write(text, start, text.length());
+    }
+
+    /**
+     * Encodes {@code text[start, end)} as UTF-8 directly into the buffer.
+     */
+    private void write(String text, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+
+            // Worst case is 4 bytes for a surrogate pair
+            if (mBuffer.remaining() < 4) {
+                flush();
+            }
+
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                mBuffer.put((byte) c);
+            } else if (c < 0x800) {
+                mBuffer.put((byte) (0xC0 | (c >> 6)));
+                mBuffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                mBuffer.put((byte) (0xF0 | (cp >> 18)));
+                mBuffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                mBuffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates cannot be encoded
+                mBuffer.put((byte) '?');
+            } else {
+                mBuffer.put((byte) (0xE0 | (c >> 12)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mStream.close();
+        }
+    }
+
+}
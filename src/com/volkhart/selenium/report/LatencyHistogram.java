@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+/**
+ * A fixed-size, log-linear histogram of latencies in the spirit of
+ * HdrHistogram. Values are recorded with microsecond resolution into buckets
+ * that are exact below 32 &micro;s and otherwise accurate to within about
+ * 3%, so recording is a few shifts and an array increment regardless of how
+ * many values have been seen.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Marius Volkhart
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Each power of two is split into 2^SUB_BUCKET_BITS linear buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values above 2^40 &micro;s (roughly 12 days) are clamped.
+     */
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mTotalCount;
+    private long mTotal;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * Records a single latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        mCounts[indexOf(micros)]++;
+        mTotalCount++;
+        mTotal += micros;
+        mMin = Math.min(mMin, micros);
+        mMax = Math.max(mMax, micros);
+    }
+
+    /**
+     * Adds all values recorded by {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mTotalCount += other.mTotalCount;
+        mTotal += other.mTotal;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /**
+     * Returns a copy of this histogram.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the smallest recorded latency in nanoseconds, or 0 if nothing
+     * has been recorded.
+     */
+    public long getMin() {
+        return mTotalCount == 0 ? 0 : mMin * 1000;
+    }
+
+    /**
+     * Returns the largest recorded latency in nanoseconds.
+     */
+    public long getMax() {
+        return mMax * 1000;
+    }
+
+    /**
+     * Returns the mean latency in nanoseconds, or 0 if nothing has been
+     * recorded.
+     */
+    public long getMean() {
+        return mTotalCount == 0 ? 0 : mTotal * 1000 / mTotalCount;
+    }
+
+    /**
+     * Returns the sum of all recorded latencies in nanoseconds.
+     */
+    public long getTotal() {
+        return mTotal * 1000;
+    }
+
+    /**
+     * Returns the latency, in nanoseconds, at or below which the given
+     * percentage of values fall. The result is the upper bound of the bucket
+     * the percentile falls into, capped at the recorded maximum.
+     *
+     * @param percentile A value between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.min(100, Math.max(0, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100 * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), mMax) * 1000;
+            }
+        }
+        return getMax();
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + mantissa - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the progress of in-flight tests over HTTP while they are running.
+ * The server only listens on the loopback interface and exposes three
+ * resources:
+ * <ul>
+ * <li>{@code /} a small page that displays the other two resources</li>
+ * <li>{@code /status} the counters of every thread's {@link Reporter} as
+ * JSON</li>
+ * <li>{@code /events} new {@link Event}s as server-sent events</li>
+ * </ul>
+ * Test threads never block on the server. Counters are read from each
+ * Reporter's {@link LiveStatus} and events are handed to connected clients
+ * through bounded lock-free queues; slow clients lose events rather than
+ * slowing down tests.
+ *
+ * @author Marius Volkhart
+ */
+public final class LiveServer {
+
+    /**
+     * The maximum number of events buffered for a single client.
+     */
+    private static final int MAX_BACKLOG = 10000;
+
+    /**
+     * How long an idle event stream waits before checking for new events.
+     */
+    private static final long POLL_MILLIS = 250;
+
+    /**
+     * Number of idle polls after which a keep-alive comment is sent.
+     */
+    private static final int HEARTBEAT_POLLS = 60;
+
+    private static final String PAGE = "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n"
+            + "<title>Live report</title>\n</head>\n<body>\n<h1>Live report</h1>\n"
+            + "<pre id=\"status\"></pre>\n<h2>Events</h2>\n<pre id=\"events\"></pre>\n"
+            + "<script type=\"text/javascript\">\n"
+            + "function refresh() {\n"
+            + "var request = new XMLHttpRequest();\n"
+            + "request.onload = function() { document.getElementById('status').textContent = "
+            + "JSON.stringify(JSON.parse(request.responseText), null, 2); };\n"
+            + "request.open('GET', '/status');\nrequest.send();\n}\n"
+            + "setInterval(refresh, 2000);\nrefresh();\n"
+            + "new EventSource('/events').onmessage = function(e) {\n"
+            + "var events = document.getElementById('events');\n"
+            + "events.textContent = e.data + '\\n' + events.textContent;\n};\n"
+            + "</script>\n</body>\n</html>";
+
+    // Weak keys so Reporters of finished threads do not accumulate
+    private static final Set<Reporter> sReporters = Collections.newSetFromMap(
+            new MapMaker().weakKeys().<Reporter, Boolean> makeMap());
+
+    private static volatile LiveServer sRunning;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final List<Client> mClients = new CopyOnWriteArrayList<Client>();
+    private volatile boolean mStopped;
+
+    private LiveServer(HttpServer server, ExecutorService executor) {
+        mServer = server;
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts the live report server on the loopback interface. Only one server
+     * may run at a time.
+     *
+     * @param port The port to listen on, or 0 to pick any free port.
+     * @return The running server.
+     * @throws IOException If the server cannot bind to the port.
+     * @throws IllegalStateException If a server is already running.
+     */
+    public static synchronized LiveServer start(int port) throws IOException {
+        if (sRunning != null) {
+            throw new IllegalStateException("The live report server is already running");
+        }
+
+        InetAddress loopback = InetAddress.getByAddress(new byte[] {
+                127, 0, 0, 1
+        });
+        HttpServer server = HttpServer.create(new InetSocketAddress(loopback, port), 0);
+
+        // Daemon threads so an open browser tab never keeps the JVM alive
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("live-report-%d").build());
+        server.setExecutor(executor);
+
+        LiveServer live = new LiveServer(server, executor);
+        server.createContext("/", live.new PageHandler());
+        server.createContext("/status", live.new StatusHandler());
+        server.createContext("/events", live.new EventsHandler());
+        server.start();
+
+        sRunning = live;
+        return live;
+    }
+
+    /**
+     * Stops the server and disconnects all clients.
+     */
+    public void stop() {
+        synchronized (LiveServer.class) {
+            if (sRunning == this) {
+                sRunning = null;
+            }
+        }
+        mStopped = true;
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    /**
+     * Makes the Reporter's progress visible to the server.
+     */
+    static void register(Reporter reporter) {
+        sReporters.add(reporter);
+    }
+
+    /**
+     * Forwards a newly added Event to all connected clients. This is a no-op
+     * when no server is running.
+     */
+    static void publish(LiveStatus status, Event event) {
+        LiveServer server = sRunning;
+        if (server != null && !server.mClients.isEmpty()) {
+            String message = toJson(status, event);
+            for (Client client : server.mClients) {
+                client.offer(message);
+            }
+        }
+    }
+
+    private static String toJson(LiveStatus status, Event event) {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("{\"title\":").append(JSONObject.quote(status.mTitle));
+        builder.append(",\"browser\":").append(JSONObject.quote(status.mBrowser));
+        builder.append(",\"script\":").append(JSONObject.quote(status.mScript));
+        builder.append(",\"function\":").append(JSONObject.quote(status.mFunction));
+        builder.append(",\"status\":").append(JSONObject.quote(event.getStatus().name()));
+        builder.append(",\"event\":").append(JSONObject.quote(event.getTitle()));
+        builder.append(",\"message\":").append(JSONObject.quote(event.getMessage()));
+        return builder.append('}').toString();
+    }
+
+    private static String statusJson() {
+        List<Reporter> reporters = new ArrayList<Reporter>(sReporters);
+        StringBuilder builder = new StringBuilder(64 + reporters.size() * 160);
+        builder.append('[');
+        for (int i = 0, max = reporters.size(); i < max; i++) {
+            LiveStatus status = reporters.get(i).getLiveStatus();
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"title\":").append(JSONObject.quote(status.mTitle));
+            builder.append(",\"browser\":").append(JSONObject.quote(status.mBrowser));
+            builder.append(",\"script\":").append(JSONObject.quote(status.mScript));
+            builder.append(",\"function\":").append(JSONObject.quote(status.mFunction));
+            builder.append(",\"passes\":").append(status.mPasses);
+            builder.append(",\"failures\":").append(status.mFailures);
+            builder.append(",\"warnings\":").append(status.mWarnings);
+            builder.append(",\"done\":").append(status.mDones);
+            builder.append(",\"finished\":").append(status.mFinished);
+            builder.append('}');
+        }
+        return builder.append(']').toString();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            output.write(bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The events pending delivery to a single connected client.
+     */
+    private static class Client {
+
+        private final Queue<String> mPending = new ConcurrentLinkedQueue<String>();
+        private final AtomicInteger mSize = new AtomicInteger();
+
+        private void offer(String message) {
+            if (mSize.incrementAndGet() <= MAX_BACKLOG) {
+                mPending.offer(message);
+            } else {
+                mSize.decrementAndGet();
+            }
+        }
+
+        private String poll() {
+            String message = mPending.poll();
+            if (message != null) {
+                mSize.decrementAndGet();
+            }
+            return message;
+        }
+    }
+
+    private class PageHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange, "text/html; charset=UTF-8", PAGE);
+        }
+    }
+
+    private class StatusHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange, "application/json; charset=UTF-8", statusJson());
+        }
+    }
+
+    private class EventsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+
+            OutputStream output = exchange.getResponseBody();
+            Client client = new Client();
+            mClients.add(client);
+            try {
+                int idlePolls = 0;
+                while (!mStopped) {
+                    String message = client.poll();
+                    if (message != null) {
+                        output.write(("data: " + message + "\n\n").getBytes(Charsets.UTF_8));
+                        idlePolls = 0;
+                        continue;
+                    }
+
+                    output.flush();
+                    if (++idlePolls >= HEARTBEAT_POLLS) {
+                        output.write(":\n\n".getBytes(Charsets.UTF_8));
+                        idlePolls = 0;
+                    }
+                    Thread.sleep(POLL_MILLIS);
+                }
+            } catch (IOException e) {
+                // The client went away. Nothing to clean up beyond the finally.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mClients.remove(client);
+                exchange.close();
+            }
+        }
+    }
+
+}
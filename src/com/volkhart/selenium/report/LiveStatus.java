@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+/**
+ * The progress of a single {@link Reporter} as seen from other threads. Only
+ * the thread owning the Reporter writes to it, so plain volatile fields are
+ * enough for readers to see a consistent, if slightly stale, view without any
+ * locking on the test thread.
+ *
+ * @author Marius Volkhart
+ */
+final class LiveStatus {
+
+    volatile String mTitle;
+    volatile String mBrowser;
+    volatile String mScript;
+    volatile String mFunction;
+    volatile int mPasses;
+    volatile int mFailures;
+    volatile int mWarnings;
+    volatile int mDones;
+    volatile boolean mFinished;
+
+    /**
+     * Forgets the counted Events. Must only be called from the owning thread.
+     */
+    void clear() {
+        mPasses = 0;
+        mFailures = 0;
+        mWarnings = 0;
+        mDones = 0;
+    }
+
+    /**
+     * Counts the Event. Must only be called from the owning thread.
+     */
+    void count(Event event) {
+        switch (event.getStatus()) {
+            case FAIL:
+                mFailures++;
+                break;
+            case WARNING:
+                mWarnings++;
+                break;
+            case PASS:
+                mPasses++;
+                break;
+            case DONE:
+                mDones++;
+                break;
+        }
+    }
+
+}
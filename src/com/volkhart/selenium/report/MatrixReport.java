@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single page showing the outcome of every test on every browser side by
+ * side, with a row per test and a column per browser. Each cell links to the
+ * report of that combination.
+ *
+ * @author Marius Volkhart
+ */
+public class MatrixReport {
+
+    private static final Template HEAD = Template.compile(
+            "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>Browser matrix</title>\n");
+    private static final Template STYLESHEET = Template.compile(
+            "<link rel=\"stylesheet\" type=\"text/css\" href=\"{}\">\n");
+    private static final Template HEADER = Template.compile(
+            "</head>\n<body>\n<h1>Browser matrix<div class=\"titleSeparator\"></div></h1>\n"
+                    + "Tests finished at {}.<br/>\n<br/>\n<table class=\"overview\">\n<tr>\n<th></th>");
+    private static final Template BROWSER = Template.compile("<th>{}</th>");
+    private static final Template ROW_START = Template.compile(
+            "\n</tr>\n<tr>\n<td class=\"functionColumn\">{}</td>");
+    private static final Template CELL = Template.compile(
+            "<td class=\"{}\"><a href=\"{}\">{}</a></td>");
+    private static final Template CELL_WITHOUT_REPORT = Template.compile(
+            "<td class=\"{}\">{}</td>");
+    private static final Template EMPTY_CELL = Template.compile("<td></td>");
+    private static final Template END = Template.compile("\n</tr>\n</table>\n</body>\n</html>");
+
+    private final Set<String> mBrowsers = new LinkedHashSet<String>();
+    private final Map<String, Map<String, Cell>> mTests = new LinkedHashMap<String, Map<String, Cell>>();
+
+    /**
+     * Adds the outcome of a test on a browser.
+     *
+     * @param test The title of the test.
+     * @param browser The browser the test ran on.
+     * @param completed Whether the test ran to its end rather than throwing.
+     * @param failures The number of failures the test reported.
+     * @param warnings The number of warnings the test reported.
+     * @param report The report of the test, or null if none was written.
+     */
+    public synchronized void add(String test, String browser, boolean completed, int failures,
+            int warnings, File report) {
+        mBrowsers.add(browser);
+        Map<String, Cell> row = mTests.get(test);
+        if (row == null) {
+            row = new HashMap<String, Cell>();
+            mTests.put(test, row);
+        }
+        row.put(browser, new Cell(completed, failures, warnings, report));
+    }
+
+    /**
+     * Writes the matrix to a file. Reports are linked relative to the file
+     * when they are in the same directory tree.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File resources = new File(dir, Reporter.RESOURCE_DIR);
+        String stylesheet = null;
+        if (resources.mkdir() || resources.isDirectory()) {
+            stylesheet = ResourceInstaller.install(Reporter.class.getResource(Reporter.CSS),
+                    resources);
+        }
+
+        HtmlWriter writer = new HtmlWriter(file);
+        try {
+            HEAD.render(writer);
+            if (stylesheet != null) {
+                STYLESHEET.render(writer, Reporter.RESOURCE_DIR + '/' + stylesheet);
+            }
+            HEADER.render(writer, new Date().toString());
+            for (String browser : mBrowsers) {
+                BROWSER.render(writer, browser);
+            }
+
+            for (Map.Entry<String, Map<String, Cell>> test : mTests.entrySet()) {
+                ROW_START.render(writer, test.getKey());
+                for (String browser : mBrowsers) {
+                    Cell cell = test.getValue().get(browser);
+                    if (cell == null) {
+                        EMPTY_CELL.render(writer);
+                    } else if (cell.mReport == null) {
+                        CELL_WITHOUT_REPORT.render(writer, cell.getStyle(), cell.describe());
+                    } else {
+                        CELL.render(writer, cell.getStyle(), link(dir, cell.mReport),
+                                cell.describe());
+                    }
+                }
+            }
+            END.render(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the URL of the report relative to the directory if it is inside
+     * it, or its absolute URL otherwise.
+     */
+    private static String link(File dir, File report) {
+        String base = dir.toURI().toString();
+        String target = report.getAbsoluteFile().toURI().toString();
+        return target.startsWith(base) ? target.substring(base.length()) : target;
+    }
+
+    private static class Cell {
+
+        private final boolean mCompleted;
+        private final int mFailures;
+        private final int mWarnings;
+        private final File mReport;
+
+        private Cell(boolean completed, int failures, int warnings, File report) {
+            mCompleted = completed;
+            mFailures = failures;
+            mWarnings = warnings;
+            mReport = report;
+        }
+
+        private String getStyle() {
+            return !mCompleted || mFailures > 0 ? "regression" : "";
+        }
+
+        private String describe() {
+            if (!mCompleted) {
+                return "Did not complete";
+            } else if (mFailures > 0) {
+                return mFailures + (mFailures == 1 ? " failure" : " failures");
+            } else if (mWarnings > 0) {
+                return mWarnings + (mWarnings == 1 ? " warning" : " warnings");
+            }
+            return "Passed";
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Preconditions;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long the browser took to load a page, broken down into the phases of
+ * the W3C Navigation Timing model, together with the slowest resources the
+ * page loaded. Page timings are added to the current {@link Function} with
+ * {@link Reporter#add(PageTiming)}.
+ *
+ * @author Marius Volkhart
+ */
+public final class PageTiming {
+
+    /**
+     * The names of the phases, in the order they happen.
+     */
+    static final String[] PHASES = {
+            "Redirect", "DNS", "Connect", "Waiting", "Download", "DOM", "Load event"
+    };
+
+    // arguments[0] is the navigationStart of the last captured page and
+    // arguments[1] the number of resources to return
+    private static final String TIMING_SCRIPT = "var p = window.performance;"
+            + "if (!p || !p.timing || !p.timing.loadEventEnd"
+            + " || p.timing.navigationStart == arguments[0]) { return null; }"
+            + "var names = ['navigationStart', 'redirectStart', 'redirectEnd',"
+            + " 'domainLookupStart', 'domainLookupEnd', 'connectStart', 'connectEnd',"
+            + " 'requestStart', 'responseStart', 'responseEnd', 'domComplete',"
+            + " 'loadEventStart', 'loadEventEnd'];"
+            + "var timing = {};"
+            + "for (var i = 0; i < names.length; i++) { timing[names[i]] = p.timing[names[i]]; }"
+            + "var entries = p.getEntriesByType ? Array.prototype.slice.call("
+            + "p.getEntriesByType('resource')) : [];"
+            + "entries.sort(function(a, b) { return b.duration - a.duration; });"
+            + "var resources = [];"
+            + "for (var i = 0; i < entries.length && i < arguments[1]; i++) {"
+            + " resources.push([entries[i].name, entries[i].initiatorType,"
+            + " Math.round(entries[i].duration)]); }"
+            + "return [location.href, timing, resources];";
+
+    private final String mUrl;
+    private final long[] mPhases;
+    private final long mTotal;
+    private long mNavigationStart;
+    private final List<Resource> mResources = new ArrayList<Resource>();
+    private final List<Resource> mResourcesView = Collections.unmodifiableList(mResources);
+
+    /**
+     * Creates a PageTiming from the attributes of the browser's
+     * {@code window.performance.timing}, which are milliseconds since the
+     * epoch. Missing attributes count as 0.
+     *
+     * @param url The URL of the page.
+     * @param timing The attributes by name, e.g. {@code navigationStart}.
+     */
+    public PageTiming(String url, Map<String, ? extends Number> timing) {
+        this(url, new long[] {
+                between(timing, "redirectStart", "redirectEnd"),
+                between(timing, "domainLookupStart", "domainLookupEnd"),
+                between(timing, "connectStart", "connectEnd"),
+                between(timing, "requestStart", "responseStart"),
+                between(timing, "responseStart", "responseEnd"),
+                between(timing, "responseEnd", "domComplete"),
+                between(timing, "loadEventStart", "loadEventEnd")
+        }, between(timing, "navigationStart", "loadEventEnd"));
+        Number navigationStart = timing.get("navigationStart");
+        mNavigationStart = navigationStart == null ? 0 : navigationStart.longValue();
+    }
+
+    /**
+     * Reads the timing of the page the browser has loaded, along with its
+     * slowest resources.
+     *
+     * @param driver The WebDriver whose page to read.
+     * @param lastNavigationStart The {@link #getNavigationStart()} of the
+     *            page read last, so that a page is only read once, or 0.
+     * @param maxResources The number of slowest resources to add.
+     * @return The timing, or null if the page is the one read last, has not
+     *         finished loading, or the browser has no Navigation Timing.
+     */
+    @SuppressWarnings("unchecked")
+    public static PageTiming capture(WebDriver driver, long lastNavigationStart,
+            int maxResources) {
+        if (!(driver instanceof JavascriptExecutor)) {
+            return null;
+        }
+
+        Object result;
+        try {
+            result = ((JavascriptExecutor) driver).executeScript(TIMING_SCRIPT,
+                    Long.valueOf(lastNavigationStart), Integer.valueOf(maxResources));
+        } catch (WebDriverException e) {
+            // Timing is a by-product and must never fail the test
+            return null;
+        }
+        if (!(result instanceof List) || ((List<?>) result).size() != 3) {
+            return null;
+        }
+
+        List<?> values = (List<?>) result;
+        PageTiming page = new PageTiming(String.valueOf(values.get(0)),
+                (Map<String, Number>) values.get(1));
+        for (Object entry : (List<?>) values.get(2)) {
+            List<?> resource = (List<?>) entry;
+            page.addResource(String.valueOf(resource.get(0)), (String) resource.get(1),
+                    ((Number) resource.get(2)).longValue());
+        }
+        return page;
+    }
+
+    /**
+     * @param phases How long each of the {@link #PHASES} took in
+     *            milliseconds.
+     * @param total How long the whole page load took in milliseconds.
+     */
+    PageTiming(String url, long[] phases, long total) {
+        Preconditions.checkArgument(phases.length == PHASES.length);
+        mUrl = Preconditions.checkNotNull(url);
+        mPhases = phases;
+        mTotal = total;
+    }
+
+    private static long between(Map<String, ? extends Number> timing, String start, String end) {
+        Number startTime = timing.get(start);
+        Number endTime = timing.get(end);
+        if (startTime == null || endTime == null || startTime.longValue() == 0) {
+            return 0;
+        }
+        return Math.max(0, endTime.longValue() - startTime.longValue());
+    }
+
+    /**
+     * Adds a resource the page loaded, such as a script or an image.
+     *
+     * @param name The URL of the resource.
+     * @param type What loaded the resource, e.g. {@code script} or
+     *            {@code img}.
+     * @param duration How long loading the resource took in milliseconds.
+     */
+    public void addResource(String name, String type, long duration) {
+        mResources.add(new Resource(name, type, duration));
+    }
+
+    String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Returns how long the phase at the index of {@link #PHASES} took in
+     * milliseconds.
+     */
+    long getPhase(int index) {
+        return mPhases[index];
+    }
+
+    /**
+     * Returns how long the page took from the start of the navigation until
+     * its load event finished, in milliseconds.
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Returns the browser's {@code navigationStart} of the page, in
+     * milliseconds since the epoch, or 0 if it is not known.
+     */
+    public long getNavigationStart() {
+        return mNavigationStart;
+    }
+
+    List<Resource> getResources() {
+        return mResourcesView;
+    }
+
+    /**
+     * A resource loaded by a page.
+     */
+    static final class Resource {
+
+        private final String mName;
+        private final String mType;
+        private final long mDuration;
+
+        private Resource(String name, String type, long duration) {
+            mName = Preconditions.checkNotNull(name);
+            mType = SymbolTable.intern(type == null ? "" : type);
+            mDuration = duration;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        String getType() {
+            return mType;
+        }
+
+        long getDuration() {
+            return mDuration;
+        }
+    }
+
+}
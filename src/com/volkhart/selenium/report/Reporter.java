@@ -16,23 +16,22 @@
 
 package com.volkhart.selenium.report;
 
-import com.google.common.io.ByteStreams;
-import com.google.common.io.Closeables;
+import com.google.common.collect.MapMaker;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.io.Writer;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 
 /**
  * Provides a way to report Selenium test events in an HTML format.
@@ -41,21 +40,150 @@ import java.util.Map;
  */
 public class Reporter {
 
-    private static final String CSS = "hololike.css";
+    static final String CSS = "hololike.css";
+
+    /**
+     * The directory, next to the test directories, that holds the resources
+     * shared by all reports.
+     */
+    static final String RESOURCE_DIR = "HTML_resources";
+
+    /**
+     * The number of Functions listed in the slowest functions table.
+     */
+    private static final int SLOWEST_COUNT = 10;
+    private static final int MAX_URL_LENGTH = 120;
+
+    private static volatile int sTrendRuns;
+
+    // Static report markup, encoded once and shared by every report
+    private static final Template HEAD_START = Template.compile(
+            "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>{}</title>"
+                    + "<link rel=\"stylesheet\" type=\"text/css\" href=\"http://fonts.googleapis.com/css?family=Roboto\">");
+    private static final Template STYLESHEET = Template.compile(
+            "<link rel=\"stylesheet\" type=\"text/css\" href=\"{}\">\n");
+
+    // JavaScript to collapse/expand sections & to enter/exit fullscreen mode
+    private static final Template SCRIPTS = Template.compile(
+            "<script type=\"text/javascript\"> \n" +
+                    "function reveal(id) {\n" +
+                    "if (document.getElementById(id).style.display == 'none') {\n" +
+                    "document.getElementById(id).style.display = 'block';\n" +
+                    "document.getElementById(id+'Button').value = 'Hide details...';\n" +
+                    "} else {\n" +
+                    "document.getElementById(id).style.display = 'none';\n" +
+                    "document.getElementById(id + 'Button').value = 'Show details...';\n" +
+                    "}\n}\n\n\n" +
+                    "function viewFullScreen(id) {\n" +
+                    "var docElm = document.getElementById(id);\n" +
+                    "if (docElm) {\n" +
+                    "if (docElm.requestFullscreen) {\n" +
+                    "docElm.requestFullscreen();\n" +
+                    "} else if (docElm.mozRequestFullScreen) {\n" +
+                    "docElm.mozRequestFullScreen();\n" +
+                    "} else if (docElm.webkitRequestFullScreen) {\n" +
+                    "docElm.webkitRequestFullScreen();\n}\n\n" +
+                    "document.addEventListener(\"click\", function() {\n" +
+                    "if (document.exitFullscreen) {\n" +
+                    "document.exitFullscreen();\n" +
+                    "} else if (document.mozCancelFullScreen) {\n" +
+                    "document.mozCancelFullScreen();\n" +
+                    "} else if (document.webkitCancelFullScreen) {\n" +
+                    "document.webkitCancelFullScreen();\n" +
+                    "}\n}, false);\n}\n}\n</script>\n");
+    private static final Template HEADER = Template.compile(
+            "</head>\n<body>\n<h1>{}<div class=\"titleSeparator\"></div></h1>\n"
+                    + "Test performed at {}.<br/>");
+    private static final Template COUNTS = Template.compile(
+            "{} failures and {} warnings found.");
+    private static final Template INFO_START = Template.compile(
+            "\n<br/>\n<br/><table class=\"overview\">\n");
+    private static final Template INFO_ROW = Template.compile(
+            "<tr>\n<td>{}</td><td>{}</td>\n</tr>\n");
+    private static final Template TABLE_END = Template.compile("</table>");
+    private static final Template LINE_BREAK = Template.compile("\n<br/>\n");
+    private static final Template OVERVIEW_START = Template.compile(
+            "<div class=\"category\">\nOverview<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">");
+    private static final Template OVERVIEW_SCRIPT = Template.compile(
+            "\n<tr>\n<td class=\"scriptColumn\"><a href=\"#{}\">{}</a></td><td class=\"durationColumn\">{}</td>\n</tr>");
+    private static final Template OVERVIEW_FUNCTION = Template.compile(
+            "\n<tr>\n<td class=\"functionColumn\">"
+                    + "{} <img border=\"0\" align=\"top\" src=\"{}\"/> "
+                    + "{} <img border=\"0\" align=\"top\" src=\"{}\"/> "
+                    + "{} <img border=\"0\" align=\"top\" src=\"{}\"/>"
+                    + "&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;<a href=\"#{}\">{}</a></td><td class=\"durationColumn\">{}</td>\n</tr>");
+    private static final Template OVERVIEW_END = Template.compile("\n</table>");
+    private static final Template SLOWEST_START = Template.compile(
+            "\n<div class=\"category\">\nSlowest functions<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">");
+    private static final Template COMMANDS_START = Template.compile(
+            "\n<div class=\"category\">\nWebDriver commands<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">"
+                    + "\n<tr>\n<th>Command</th><th>Count</th><th>Median</th><th>90%</th><th>99%</th><th>Max</th><th>Total</th>\n</tr>");
+    private static final Template COMMAND = Template.compile(
+            "\n<tr>\n<td>{}</td><td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td>"
+                    + "<td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td>\n</tr>");
+    private static final Template SLOWEST_FUNCTION = Template.compile(
+            "\n<tr>\n<td class=\"durationColumn\">{}</td><td class=\"functionColumn\">{} &rsaquo; <a href=\"#{}\">{}</a></td>\n</tr>");
+    private static final Template PAGES_START = Template.compile(
+            "\n<div class=\"category\">\nPage loads<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">"
+                    + "\n<tr>\n<th>Page</th><th>Redirect</th><th>DNS</th><th>Connect</th><th>Waiting</th><th>Download</th>"
+                    + "<th>DOM</th><th>Load event</th><th>Total</th>\n</tr>");
+    private static final Template PAGE_START = Template.compile(
+            "\n<tr>\n<td class=\"functionColumn\"><a href=\"#{}\">{}</a> &rsaquo; ");
+    private static final Template PAGE_PHASE = Template.compile(
+            "<td class=\"durationColumn\">{}</td>");
+    private static final Template PAGE_END = Template.compile("\n</tr>");
+    private static final Template RESOURCES_START = Template.compile(
+            "\n<div class=\"category\">\nSlowest resources<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">"
+                    + "\n<tr>\n<th>Duration</th><th>Resource</th><th>Type</th><th>Page</th>\n</tr>");
+    private static final Template RESOURCE_START = Template.compile(
+            "\n<tr>\n<td class=\"durationColumn\">{}</td><td>");
+    private static final Template RESOURCE_TYPE = Template.compile("</td><td>{}</td><td>");
+    private static final Template CELL_END = Template.compile("</td>");
+    private static final Template BODY_START = Template.compile("\n<br/>\n\n");
+    private static final Template NO_TESTS = Template.compile(
+            "Doh! You need to write a test first!");
+    private static final Template SCRIPT = Template.compile(
+            "<div class=\"category\">\n<a name=\"{}\" href=\"#\">{}</a><div class=\"categorySeparator\"></div></div>");
+    private static final Template FUNCTION_START = Template.compile(
+            "\n\n<div class=\"issue\">\n<a name=\"{}\" class=\"id\" href=\"#\">{}</a><div class=\"issueSeparator\"></div>");
+    private static final Template EVENT = Template.compile(
+            "<br/>\n<div class=\"eventTitle\"><img border=\"0\" align=\"top\" src=\"{}\"/> {} <span class=\"elapsed\">+{}</span></div>\n"
+                    + "<div class=\"eventExplanation\">{}</div>");
+    private static final Template DETAILS_START = Template.compile(
+            "<br/><input type=\"button\" id=\"details{}Button\" onclick=\"reveal('details{}');\" value=\"Show details...\"/>\n<br/>\n"
+                    + "<div id=\"details{}\" style=\"display: none\">\n<br/>\n");
+    private static final Template SCREENSHOT = Template.compile(
+            "<a title=\"Larger image\" href=\"{}\" target=\"_blank\">Permalink</a>\n\n"
+                    + "<a title=\"Fullscreen\" href=\"#{}\" onclick=\"viewFullScreen('{}')\"><img width=\"100%\" src=\"{}\" id=\"{}\"/></a>\n\n");
+    private static final Template CODE_START = Template.compile(
+            "\n<div class=\"warningslist\"><br/>\n<pre class=\"errorlines\">");
+    private static final Template LINE_NUMBER = Template.compile(
+            "\n<span class=\"lineno\"> {}</span>\t");
+    private static final Template CODE_END = Template.compile("</pre></div>");
+    private static final Template DIV_END = Template.compile("</div>");
+    private static final Template REPORT_END = Template.compile("\n</body>\n</html>");
 
     private String mErrorIconUrl;
     private String mWarningIconUrl;
     private String mPassIconUrl;
     private String mDoneIconUrl;
     private String mTitle = "Automation Report";
-    private Map<String, File> mNameToFile = new HashMap<String, File>();
     private Script mScript;
     private ArrayList<Script> mScripts = new ArrayList<Script>();
     private ArrayList<Info> mInfos = new ArrayList<Info>();
-    private Writer mWriter;
+    private final StatusCounts mCounts = new StatusCounts();
+    private HtmlWriter mWriter;
     private File mOutput;
     private String mOutputPath;
     private String mBrowser;
+    private final LiveStatus mLiveStatus = new LiveStatus();
+    private final boolean mReplayed;
+    private final Screenshot mScreenshot;
+    private EventJournal mJournal;
+
+    // Reporters whose report has not been generated yet
+    private static final Set<Reporter> sUnfinished = Collections.newSetFromMap(
+            new MapMaker().weakKeys().<Reporter, Boolean> makeMap());
 
     // Ensure that each thread only has a single reporter.
     private static ThreadLocal<Reporter> sReporter = new ThreadLocal<Reporter>() {
@@ -69,6 +197,21 @@ public class Reporter {
 
     // Need private constructor to avoid instantiation
     private Reporter() {
+        this(false);
+    }
+
+    private Reporter(boolean replayed) {
+        mReplayed = replayed;
+        mLiveStatus.mTitle = mTitle;
+        if (replayed) {
+            mScreenshot = null;
+        } else {
+            // Kept so that a partial report written from another thread
+            // still gets this thread's screenshots
+            mScreenshot = Screenshot.get();
+            LiveServer.register(this);
+            sUnfinished.add(this);
+        }
     }
 
     /**
@@ -82,19 +225,178 @@ public class Reporter {
     }
 
     /**
-     * Creates the HTML report to the location previously set.
+     * Discards the Reporter of the current thread, so the next call to
+     * {@link #get()} on it returns a new one. Threads that run more than one
+     * test must call this between tests.
+     */
+    public static void release() {
+        sReporter.remove();
+    }
+
+    /**
+     * Returns the number of failures reported so far.
+     */
+    public int getFailureCount() {
+        return mCounts.get(Event.Status.FAIL);
+    }
+
+    /**
+     * Returns the number of warnings reported so far.
+     */
+    public int getWarningCount() {
+        return mCounts.get(Event.Status.WARNING);
+    }
+
+    /**
+     * Returns the HTML report, or null if it has not been generated yet.
+     */
+    public File getReportFile() {
+        return mOutput;
+    }
+
+    /**
+     * Returns the location previously set for test results, or null if none
+     * has been set.
+     */
+    public String getOutputPath() {
+        return mOutputPath;
+    }
+
+    /**
+     * Generates the report of every Reporter that has not generated one yet,
+     * marking it as interrupted. This is meant for when a run is stopped
+     * before its tests finish, for example from a shutdown hook, so that the
+     * results so far are not lost. Reporters without an output path are
+     * skipped. Tests may still be adding events while this runs, so a report
+     * can miss the last events.
+     */
+    public static void generatePartialReports() {
+        for (Reporter reporter : new ArrayList<Reporter>(sUnfinished)) {
+            if (reporter.mOutputPath == null) {
+                continue;
+            }
+            try {
+                reporter.add(new Event("Interrupted",
+                        "The run was stopped before this test finished. The results are partial.",
+                        Event.Status.FAIL));
+                reporter.generateReport();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Releases what the Reporters of a run share to save memory, such as the
+     * stack traces of their Events. {@link com.volkhart.selenium.framework.Execution}
+     * calls this once every test has finished. Reports that have not been
+     * generated yet are unaffected.
+     */
+    public static void finishRun() {
+        SymbolTable.clear();
+    }
+
+    /**
+     * Keeps a history of every report and writes a trend page next to the
+     * reports of each test, {@code <title>/trends.html}, comparing the last
+     * runs on every browser. The history is appended to, so older runs never
+     * have to be read again.
+     * 
+     * @param runs The number of runs to show per browser, or 0 to not keep a
+     *            history. Defaults to 0.
+     */
+    public static void setTrendRuns(int runs) {
+        sTrendRuns = runs;
+    }
+
+    /**
+     * Reads a journal written by a Reporter, so the report can be generated
+     * again without re-running the test. The returned Reporter is not bound
+     * to any thread. Screenshots are referenced where the original report
+     * put them, so regenerate the report to the same output path to keep
+     * them.
+     * 
+     * @param journal The journal file.
+     * @return A Reporter holding everything recorded in the journal.
+     * @throws IOException If the journal cannot be read.
+     * @see #setJournal(File, boolean)
+     */
+    public static Reporter replay(File journal) throws IOException {
+        Reporter reporter = new Reporter(true);
+        EventJournal.read(journal, reporter);
+        return reporter;
+    }
+
+    /**
+     * Records everything added to this Reporter, including what has been
+     * added so far, to a compact binary journal. The journal is closed when
+     * the report is generated.
+     * 
+     * @param file The journal file. It is replaced if it exists.
+     * @param compress Whether to deflate the journal.
+     * @throws IOException If the journal cannot be written.
+     * @see #replay(File)
+     */
+    public void setJournal(File file, boolean compress) throws IOException {
+        EventJournal journal = new EventJournal(file, compress);
+        journal.title(mTitle);
+        if (mBrowser != null) {
+            journal.browser(mBrowser);
+        }
+        for (Info info : mInfos) {
+            journal.info(info.getKey(), info.getValue());
+        }
+        for (Script script : mScripts) {
+            journal.script(script);
+            for (Function function : script.getFunctions()) {
+                journal.function(function);
+                for (Event event : function.getEvents()) {
+                    journal.event(event);
+                }
+                for (PageTiming page : function.getPages()) {
+                    journal.page(page);
+                }
+            }
+        }
+        journal.flush();
+        mJournal = journal;
+    }
+
+    /**
+     * Creates the HTML report to the location previously set. Events added
+     * from other threads wait until the report has been written, so a
+     * partial report can be written while the test is still running.
      * 
      * @throws IOException If the report cannot be written to the specified
      *             path.
      */
-    public void generateReport() throws IOException {
+    public synchronized void generateReport() throws IOException {
 
         // TODO add check for invalid path & nulls
-        formatOutputPath();
-        Screenshot.get().generateReport(mOutputPath);
+        sUnfinished.remove(this);
+        long end = System.nanoTime();
+        if (mScript != null) {
+            mScript.finish(end);
+        }
+        if (mJournal != null) {
+            EventJournal journal = mJournal;
+            mJournal = null;
+            journal.close(end);
+        }
+        // The path is only formatted once, so the report can be generated
+        // again after a partial one
+        if (mOutput == null) {
+            formatOutputPath();
+        }
+        if (!mReplayed) {
+            mScreenshot.generateReport(mOutputPath);
+        }
         mOutput = new File(mOutputPath + ".html");
+        mOutput.getParentFile().mkdirs();
         mOutput.createNewFile();
-        mWriter = new BufferedWriter(new FileWriter(mOutput));
+        mWriter = new HtmlWriter(mOutput);
 
         mErrorIconUrl = addLocalResources(Reporter.class.getResource("error.png"));
         mWarningIconUrl = addLocalResources(Reporter.class.getResource("warning.png"));
@@ -107,14 +409,18 @@ public class Reporter {
 
         if (mScripts.size() > 0) {
 
-            mWriter.write("\n<br/>\n\n");
+            BODY_START.render(mWriter);
             mainReporting();
 
         } else {
-            mWriter.write("Doh! You need to write a test first!");
+            NO_TESTS.render(mWriter);
         }
 
         finishReport();
+        if (sTrendRuns > 0 && !mReplayed) {
+            writeTrends();
+        }
+        mLiveStatus.mFinished = true;
     }
 
     /**
@@ -124,9 +430,21 @@ public class Reporter {
      * 
      * @param name The name given to this high-level test segment.
      */
-    public void setScript(String name) {
+    public synchronized void setScript(String name) {
+        if (mScript != null) {
+            mScript.finish(System.nanoTime());
+        }
         mScript = new Script(name);
         mScripts.add(mScript);
+        if (mJournal != null) {
+            try {
+                mJournal.script(mScript);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+        mLiveStatus.mScript = name;
+        mLiveStatus.mFunction = null;
     }
 
     /**
@@ -136,8 +454,17 @@ public class Reporter {
      * 
      * @param name The name given to this low-level test segment.
      */
-    public void setFunction(String name) {
-        mScript.add(new Function(name));
+    public synchronized void setFunction(String name) {
+        Function function = new Function(name);
+        mScript.add(function);
+        if (mJournal != null) {
+            try {
+                mJournal.function(function);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+        mLiveStatus.mFunction = name;
     }
 
     /**
@@ -149,6 +476,14 @@ public class Reporter {
     public void setTitle(String title) {
         mTitle = title.trim();
         mTitle = mTitle.replace(' ', '_');
+        mLiveStatus.mTitle = mTitle;
+        if (mJournal != null) {
+            try {
+                mJournal.title(mTitle);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
     }
 
     /**
@@ -173,13 +508,28 @@ public class Reporter {
         if (mBrowser == null) {
             mBrowser = browser.trim();
             mBrowser = mBrowser.replace(' ', '_');
+            mLiveStatus.mBrowser = mBrowser;
+            if (mJournal != null) {
+                try {
+                    mJournal.browser(mBrowser);
+                } catch (IOException e) {
+                    journalFailed(e);
+                }
+            }
         }
     }
 
-    public void putInfo(String key, String value) {
+    public synchronized void putInfo(String key, String value) {
         key = key == null ? "" : key;
         value = value == null ? "" : value;
         mInfos.add(new Info(key, value));
+        if (mJournal != null) {
+            try {
+                mJournal.info(key, value);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
     }
 
     /**
@@ -193,178 +543,364 @@ public class Reporter {
      * @see #setScript(String)
      */
     public boolean add(Event e) {
+        boolean changed;
+        synchronized (this) {
+            if (mScript == null) {
+                setScript(Script.DEFAULT_TITLE);
+            }
+            if (mScript.getCurrentFunction() == null) {
+                setFunction(Function.DEFAULT_TITLE);
+            }
+            changed = mScript.add(e);
+            mCounts.count(e.getStatus());
+            if (mJournal != null) {
+                try {
+                    mJournal.event(e);
+                } catch (IOException ex) {
+                    journalFailed(ex);
+                }
+            }
+            mLiveStatus.count(e);
+        }
+        LiveServer.publish(mLiveStatus, e);
+        return changed;
+    }
+
+    /**
+     * Discards every Script, Function and Event added so far, along with
+     * their screenshots, for example before a test is retried so that the
+     * failures of the earlier attempt do not count. The title, output path,
+     * browser and info are kept.
+     */
+    public synchronized void discardResults() {
+        mScript = null;
+        mScripts.clear();
+        mCounts.clear();
+        mLiveStatus.clear();
+        mLiveStatus.mScript = null;
+        mLiveStatus.mFunction = null;
+        if (mScreenshot != null) {
+            mScreenshot.discard();
+        }
+        if (mJournal != null) {
+            try {
+                mJournal.discard();
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+    }
+
+    /**
+     * Adds how long the browser took to load a page to the current Function.
+     * 
+     * @param page The timing of the page.
+     */
+    public synchronized void add(PageTiming page) {
         if (mScript == null) {
             setScript(Script.DEFAULT_TITLE);
         }
-        return mScript.add(e);
+        if (mScript.getCurrentFunction() == null) {
+            setFunction(Function.DEFAULT_TITLE);
+        }
+        mScript.getCurrentFunction().add(page);
+        if (mJournal != null) {
+            try {
+                mJournal.page(page);
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
     }
 
-    private void startReport() throws IOException {
+    void restore(Script script) {
+        finishScript(script.getStart());
+        mScript = script;
+        mScripts.add(script);
+    }
+
+    void restore(Function function) {
+        if (mScript == null) {
+            restore(new Script(Script.DEFAULT_TITLE, function.getStart()));
+        }
+        mScript.add(function);
+    }
+
+    void restore(Event event) {
+        if (mScript == null || mScript.getCurrentFunction() == null) {
+            restore(new Function(Function.DEFAULT_TITLE, event.getTimestamp()));
+        }
+        mScript.add(event);
+        mCounts.count(event.getStatus());
+    }
+
+    void finishScript(long nanoTime) {
+        if (mScript != null) {
+            mScript.finish(nanoTime);
+        }
+    }
+
+    /**
+     * Stops journaling after a write failed. The report itself is unaffected.
+     */
+    private void journalFailed(IOException e) {
+        e.printStackTrace();
+        EventJournal journal = mJournal;
+        mJournal = null;
+        try {
+            journal.close(System.nanoTime());
+        } catch (IOException ignored) {
+            // Already reported the original failure
+        }
+    }
 
-        // Title
-        mWriter.write("<!DOCTYPE html>\n<html>\n<head>\n<title>" + mTitle + "</title>");
+    LiveStatus getLiveStatus() {
+        return mLiveStatus;
+    }
 
-        // Include resources
-        mWriter.write("<link rel=\"stylesheet\" type=\"text/css\" href=\"http://fonts.googleapis.com/css?family=Roboto\">");
+    private void startReport() throws IOException {
 
         // Link to the CSS. No need to inline since we include images also.
         URL cssUrl = Reporter.class.getResource(CSS);
         String ref = addLocalResources(cssUrl);
+
+        HEAD_START.render(mWriter, mTitle);
         if (ref != null) {
-            mWriter.write("<link rel=\"stylesheet\" type=\"text/css\" href=\"" + ref + "\">\n");
-        }
-
-        // Inject JavaScript to collapse/expand sections & to enter/exit
-        // fullscreen mode
-        mWriter.write("<script type=\"text/javascript\"> \n" +
-                "function reveal(id) {\n" +
-                "if (document.getElementById(id).style.display == 'none') {\n" +
-                "document.getElementById(id).style.display = 'block';\n" +
-                "document.getElementById(id+'Button').value = 'Hide details...';\n" +
-                "} else {\n" +
-                "document.getElementById(id).style.display = 'none';\n" +
-                "document.getElementById(id + 'Button').value = 'Show details...';\n" +
-                "}\n}\n\n\n" +
-                "function viewFullScreen(id) {\n" +
-                "var docElm = document.getElementById(id);\n" +
-                "if (docElm) {\n" +
-                "if (docElm.requestFullscreen) {\n" +
-                "docElm.requestFullscreen();\n" +
-                "} else if (docElm.mozRequestFullScreen) {\n" +
-                "docElm.mozRequestFullScreen();\n" +
-                "} else if (docElm.webkitRequestFullScreen) {\n" +
-                "docElm.webkitRequestFullScreen();\n}\n\n" +
-                "document.addEventListener(\"click\", function() {\n" +
-                "if (document.exitFullscreen) {\n" +
-                "document.exitFullscreen();\n" +
-                "} else if (document.mozCancelFullScreen) {\n" +
-                "document.mozCancelFullScreen();\n" +
-                "} else if (document.webkitCancelFullScreen) {\n" +
-                "document.webkitCancelFullScreen();\n" +
-                "}\n}, false);\n}\n}\n</script>\n");
+            STYLESHEET.render(mWriter, ref);
+        }
+        SCRIPTS.render(mWriter);
 
         // The header and timestamp
-        mWriter.write("</head>\n<body>\n<h1>" + mTitle
-                + "<div class=\"titleSeparator\"></div></h1>\n");
-        mWriter.write(String.format("Test performed at %1$s.", new Date().toString()));
-        mWriter.write("<br/>");
-
-        // Get the failure & warning counts
-        int failCount = 0;
-        int warningCount = 0;
-        for (Script script : mScripts) {
-            failCount += script.getFailureCount();
-            warningCount += script.getWarningCount();
-        }
+        HEADER.render(mWriter, mTitle, new Date().toString());
 
-        mWriter.write(String.format("%1$d failures and %2$d warnings found.", failCount,
-                warningCount));
+        COUNTS.render(mWriter, Integer.toString(mCounts.get(Event.Status.FAIL)),
+                Integer.toString(mCounts.get(Event.Status.WARNING)));
 
         // Print all the info thats been added for the test
         if (mInfos.size() > 0) {
-            mWriter.write("\n<br/>\n<br/>");
-            mWriter.write("<table class=\"overview\">\n");
+            INFO_START.render(mWriter);
             for (Info i : mInfos) {
-                mWriter.write("<tr>\n<td>");
-                mWriter.write(i.getKey());
-                mWriter.write("</td><td>");
-                mWriter.write(i.getValue());
-                mWriter.write("</td>\n</tr>\n");
+                INFO_ROW.render(mWriter, i.getKey(), i.getValue());
             }
-            mWriter.write("</table>");
+            TABLE_END.render(mWriter);
         }
 
-        mWriter.write("\n<br/>\n");
+        LINE_BREAK.render(mWriter);
     }
 
     private void writeOverview() throws IOException {
         // Write issue id summary
-        mWriter.write("<div class=\"category\">\nOverview<div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">");
+        OVERVIEW_START.render(mWriter);
+
+        for (Script script : mScripts) {
+            OVERVIEW_SCRIPT.render(mWriter, script.getName(), script.getName(),
+                    formatDuration(script.getDuration()));
+
+            for (Function function : script.getFunctions()) {
+                OVERVIEW_FUNCTION.render(mWriter,
+                        formatOverviewInt(function.getFailureCount()), mErrorIconUrl,
+                        formatOverviewInt(function.getWarningCount()), mWarningIconUrl,
+                        formatOverviewInt(function.getPassCount()), mPassIconUrl,
+                        function.getName(), function.getName(),
+                        formatDuration(function.getDuration()));
+            }
+        }
+        OVERVIEW_END.render(mWriter);
 
+        writeSlowestFunctions();
+        writePageLoads();
+        if (!mReplayed) {
+            writeCommandMetrics();
+        }
+    }
+
+    private void writeSlowestFunctions() throws IOException {
+        List<Function> functions = new ArrayList<Function>();
+        Map<Function, String> scriptNames = new HashMap<Function, String>();
         for (Script script : mScripts) {
-            mWriter.write("\n<tr>\n<td class=\"scriptColumn\"><a href=\"#");
-            mWriter.write(script.getName());
-            mWriter.write("\">");
-            mWriter.write(script.getName());
-            mWriter.write("</a></td>\n</tr>");
+            for (Function function : script.getFunctions()) {
+                functions.add(function);
+                scriptNames.put(function, script.getName());
+            }
+        }
+        if (functions.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(functions, new Comparator<Function>() {
+
+            @Override
+            public int compare(Function lhs, Function rhs) {
+                long lhsDuration = lhs.getDuration();
+                long rhsDuration = rhs.getDuration();
+                return lhsDuration < rhsDuration ? 1 : (lhsDuration == rhsDuration ? 0 : -1);
+            }
+        });
+
+        SLOWEST_START.render(mWriter);
+        for (Function function : functions.subList(0, Math.min(SLOWEST_COUNT, functions.size()))) {
+            SLOWEST_FUNCTION.render(mWriter, formatDuration(function.getDuration()),
+                    scriptNames.get(function), function.getName(), function.getName());
+        }
+        OVERVIEW_END.render(mWriter);
+    }
 
+    /**
+     * Writes the load time breakdown of every page and the slowest resources
+     * across all of them.
+     */
+    private void writePageLoads() throws IOException {
+        List<PageTiming.Resource> resources = new ArrayList<PageTiming.Resource>();
+        Map<PageTiming.Resource, String> pageUrls = new HashMap<PageTiming.Resource, String>();
+        boolean started = false;
+        for (Script script : mScripts) {
             for (Function function : script.getFunctions()) {
-                mWriter.write("\n<tr>\n<td class=\"functionColumn\">");
-                mWriter.write(formatOverviewInt(function.getFailureCount()));
-                mWriter.write(" <img border=\"0\" align=\"top\" src=\"");
-                mWriter.write(mErrorIconUrl);
-                mWriter.write("\"/> ");
-                mWriter.write(formatOverviewInt(function.getWarningCount()));
-                mWriter.write(" <img border=\"0\" align=\"top\" src=\"");
-                mWriter.write(mWarningIconUrl);
-                mWriter.write("\"/> ");
-                mWriter.write(formatOverviewInt(function.getPassCount()));
-                mWriter.write(" <img border=\"0\" align=\"top\" src=\"");
-                mWriter.write(mPassIconUrl);
-                mWriter.write("\"/>");
-
-                mWriter.write("&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;<a href=\"#");
-                mWriter.write(function.getName());
-                mWriter.write("\">");
-                mWriter.write(function.getName());
-                mWriter.write("</a></td>\n</tr>");
+                for (PageTiming page : function.getPages()) {
+                    if (!started) {
+                        PAGES_START.render(mWriter);
+                        started = true;
+                    }
+                    PAGE_START.render(mWriter, function.getName(), function.getName());
+                    mWriter.writeEscaped(abbreviate(page.getUrl()));
+                    CELL_END.render(mWriter);
+                    for (int i = 0; i < PageTiming.PHASES.length; i++) {
+                        PAGE_PHASE.render(mWriter, page.getPhase(i) + " ms");
+                    }
+                    PAGE_PHASE.render(mWriter, formatDuration(page.getTotal() * 1000000));
+                    PAGE_END.render(mWriter);
+
+                    for (PageTiming.Resource resource : page.getResources()) {
+                        resources.add(resource);
+                        pageUrls.put(resource, page.getUrl());
+                    }
+                }
+            }
+        }
+        if (!started) {
+            return;
+        }
+        OVERVIEW_END.render(mWriter);
+
+        if (resources.isEmpty()) {
+            return;
+        }
+        Collections.sort(resources, new Comparator<PageTiming.Resource>() {
+
+            @Override
+            public int compare(PageTiming.Resource lhs, PageTiming.Resource rhs) {
+                long lhsDuration = lhs.getDuration();
+                long rhsDuration = rhs.getDuration();
+                return lhsDuration < rhsDuration ? 1 : (lhsDuration == rhsDuration ? 0 : -1);
             }
+        });
+
+        RESOURCES_START.render(mWriter);
+        for (PageTiming.Resource resource : resources.subList(0,
+                Math.min(SLOWEST_COUNT, resources.size()))) {
+            RESOURCE_START.render(mWriter, formatDuration(resource.getDuration() * 1000000));
+            mWriter.writeEscaped(abbreviate(resource.getName()));
+            RESOURCE_TYPE.render(mWriter, resource.getType());
+            mWriter.writeEscaped(abbreviate(pageUrls.get(resource)));
+            CELL_END.render(mWriter);
+            PAGE_END.render(mWriter);
+        }
+        OVERVIEW_END.render(mWriter);
+    }
+
+    /**
+     * Shortens long URLs, such as data URIs, so they do not stretch the
+     * tables.
+     */
+    private static String abbreviate(String url) {
+        return url.length() <= MAX_URL_LENGTH ? url : url.substring(0, MAX_URL_LENGTH)
+                + "\u2026";
+    }
+
+    /**
+     * Writes the latency of this thread's WebDriver commands both into the
+     * report and into a CSV file next to it.
+     */
+    private void writeCommandMetrics() throws IOException {
+        SortedMap<String, LatencyHistogram> histograms = CommandMetrics.get().snapshot();
+        if (histograms.isEmpty()) {
+            return;
+        }
+
+        COMMANDS_START.render(mWriter);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            COMMAND.render(mWriter, entry.getKey(), Long.toString(histogram.getCount()),
+                    formatDuration(histogram.getValueAtPercentile(50)),
+                    formatDuration(histogram.getValueAtPercentile(90)),
+                    formatDuration(histogram.getValueAtPercentile(99)),
+                    formatDuration(histogram.getMax()),
+                    formatDuration(histogram.getTotal()));
         }
-        mWriter.write("\n</table>");
+        OVERVIEW_END.render(mWriter);
+
+        CommandMetrics.write(histograms, new File(mOutputPath + ".metrics.csv"));
     }
 
     private void mainReporting() throws IOException {
 
+        // Titles repeat heavily, so only format each distinct one once
+        Map<String, String> titles = new HashMap<String, String>();
+        long detailsId = 0;
+
         for (Script script : mScripts) {
 
             // Print the Script name
-            mWriter.write("<div class=\"category\">\n");
-            mWriter.write("<a name=\"");
-            mWriter.write(script.getName());
-            mWriter.write("\" href=\"#\">");
-            mWriter.write(script.getName());
-            mWriter.write("</a><div class=\"categorySeparator\"></div></div>");
+            SCRIPT.render(mWriter, script.getName(), script.getName());
 
             for (Function function : script.getFunctions()) {
                 // Write the Function data
-                mWriter.write("\n\n<div class=\"issue\">\n<a name=\"");
-                mWriter.write(function.getName());
-                mWriter.write("\" class=\"id\" href=\"#\">");
-                mWriter.write(function.getName());
-                mWriter.write("</a><div class=\"issueSeparator\"></div>");
+                FUNCTION_START.render(mWriter, function.getName(), function.getName());
 
                 for (Event event : function.getEvents()) {
-                    mWriter.write("<br/>\n<div class=\"eventTitle\"><img border=\"0\" align=\"top\" src=\"");
-                    mWriter.write(extractImageUrl(event));
-                    mWriter.write("\"/> ");
-                    String temp = event.getTitle();
-                    mWriter.write(temp.charAt(0) + temp.substring(1).toLowerCase());
-                    mWriter.write("</div>\n<div class=\"eventExplanation\">");
-                    mWriter.write(event.getMessage());
-                    mWriter.write("</div>");
+                    String title = titles.get(event.getTitle());
+                    if (title == null) {
+                        title = formatTitle(event.getTitle());
+                        titles.put(event.getTitle(), title);
+                    }
+                    EVENT.render(mWriter, extractImageUrl(event), title,
+                            formatDuration(event.getTimestamp() - function.getStart()),
+                            event.getMessage());
 
                     if (event.getStatus() == Event.Status.FAIL
                             || event.getStatus() == Event.Status.WARNING) {
-                        long UID = System.nanoTime();
-                        mWriter.write("<br/><input type=\"button\" id=\"");
-                        mWriter.write(Long.toString(UID));
-                        mWriter.write("Button\" onclick=\"reveal('");
-                        mWriter.write(Long.toString(UID));
-                        mWriter.write("');\" value=\"Show details...\"/>\n<br/>\n<div id=\"");
-                        mWriter.write(Long.toString(UID));
-                        mWriter.write("\" style=\"display: none\">\n<br/>\n");
+                        String id = Long.toString(detailsId++);
+                        DETAILS_START.render(mWriter, id, id, id);
                         writeScreenshot(event);
                         writeCode(event);
-                        mWriter.write("</div>");
+                        DIV_END.render(mWriter);
                     }
                 }
-                mWriter.write("</div>");
+                DIV_END.render(mWriter);
             }
         }
     }
 
+    private void writeTrends() throws IOException {
+        long duration = 0;
+        for (Script script : mScripts) {
+            duration += script.getDuration();
+        }
+        TrendStore.Run run = new TrendStore.Run(System.currentTimeMillis(),
+                mCounts.get(Event.Status.PASS), mCounts.get(Event.Status.FAIL),
+                mCounts.get(Event.Status.WARNING), duration);
+        for (Script script : mScripts) {
+            for (Function function : script.getFunctions()) {
+                run.addFunction(script.getName() + " / " + function.getName(),
+                        function.getDuration());
+            }
+        }
+
+        TrendPage.update(mOutput.getParentFile(), mTitle, mBrowser, run, sTrendRuns,
+                addLocalResources(Reporter.class.getResource(CSS)));
+    }
+
     private void finishReport() throws IOException {
-        mWriter.write("\n</body>\n</html>");
+        REPORT_END.render(mWriter);
         mWriter.close();
 
         String path = mOutput.getAbsolutePath();
@@ -372,40 +908,29 @@ public class Reporter {
     }
 
     private void writeCode(Event event) throws IOException {
-        mWriter.write("\n<div class=\"warningslist\"><br/>\n<pre class=\"errorlines\">");
+        CODE_START.render(mWriter);
 
         String[] traces = event.getStackTrace();
 
         // Start at 1 because first element is the stackTrace call itself
         for (int i = 1, max = traces.length; i < max; i++) {
-            mWriter.write("\n<span class=\"lineno\"> ");
-            mWriter.write(Integer.toString(i));
-            mWriter.write("</span>\t");
-            appendEscapedText(traces[i]);
+            LINE_NUMBER.render(mWriter, Integer.toString(i));
+            mWriter.writeEscaped(traces[i]);
         }
-        mWriter.write("</pre></div>");
+        CODE_END.render(mWriter);
     }
 
     /**
      * Returns a URL to a local copy of the given resource, or null. There is no
-     * filename conflict resolution.
+     * filename conflict resolution. The copy is shared by every report written
+     * to the same output path and is only installed once per process.
      */
     private String addLocalResources(URL url) {
         // Attempt to make local copy
         File resourceDir = computeResourceDir();
         if (resourceDir != null) {
-            String base = url.getFile();
-            base = base.substring(base.lastIndexOf('/') + 1);
-            mNameToFile.put(base, new File(url.toExternalForm()));
-
-            File target = new File(resourceDir, base);
-            try {
-                FileOutputStream output = new FileOutputStream(target);
-                InputStream input = url.openStream();
-                ByteStreams.copy(input, output);
-                Closeables.closeQuietly(output);
-                Closeables.closeQuietly(input);
-            } catch (IOException e) {
+            String base = ResourceInstaller.install(url, resourceDir);
+            if (base == null) {
                 return null;
             }
             return "../" + resourceDir.getName() + '/' + encodeUrl(base);
@@ -415,8 +940,9 @@ public class Reporter {
 
     /** Finds/creates the local resource directory, if possible */
     private File computeResourceDir() {
-        File resources = new File(mOutput.getParentFile().getParentFile(), "HTML_resources");
-        if (!resources.exists() && !resources.mkdir()) {
+        File resources = new File(mOutput.getParentFile().getParentFile(), RESOURCE_DIR);
+        // Another thread may create the directory between the check and mkdir
+        if (!resources.mkdir() && !resources.isDirectory()) {
             resources = null;
         }
 
@@ -449,25 +975,8 @@ public class Reporter {
         }
     }
 
-    private void appendEscapedText(String textValue) throws IOException {
-        for (int i = 0, n = textValue.length(); i < n; i++) {
-            char c = textValue.charAt(i);
-            if (c == '<') {
-                mWriter.write("&lt;");
-            } else if (c == '&') {
-                mWriter.write("&amp;");
-            } else if (c == '\n') {
-                mWriter.write("<br/>");
-            } else {
-                if (c > 255) {
-                    mWriter.write("&#");
-                    mWriter.write(Integer.toString(c));
-                    mWriter.write(';');
-                } else {
-                    mWriter.write(c);
-                }
-            }
-        }
+    private static String formatTitle(String title) {
+        return title.charAt(0) + title.substring(1).toLowerCase();
     }
 
     private void formatOutputPath() {
@@ -475,23 +984,31 @@ public class Reporter {
     }
 
     private void writeScreenshot(Event event) throws IOException {
+        if (event.getScreenshotFilePath() == null) {
+            return;
+        }
         String id = mBrowser + event.getScreenshotFilePath();
         String path = "./" + id;
 
-        mWriter.write("<a title=\"Larger image\" href=\"");
-        mWriter.write(path);
-        mWriter.write("\" target=\"_blank\">Permalink</a>\n\n");
-        mWriter.write("<a title=\"Fullscreen\" href=\"#");
-        mWriter.write(id);
-        mWriter.write("\" onclick=\"viewFullScreen('");
-        mWriter.write(id);
-        mWriter.write("')\"><img width=\"100%\" src=\"");
-        mWriter.write(path);
-        mWriter.write("\" id=\"");
-        mWriter.write(id);
-        mWriter.write("\"/></a>\n\n");
+        SCREENSHOT.render(mWriter, path, id, id, path, id);
     }
     
+    /**
+     * Formats a duration in nanoseconds for display, e.g. "250 ms", "12.3 s"
+     * or "4 min 2 s".
+     */
+    static String formatDuration(long nanos) {
+        long millis = Math.max(0, nanos / 1000000);
+        if (millis < 1000) {
+            return millis + " ms";
+        }
+        long seconds = millis / 1000;
+        if (seconds < 60) {
+            return seconds + "." + (millis % 1000) / 100 + " s";
+        }
+        return seconds / 60 + " min " + seconds % 60 + " s";
+    }
+
     private String formatOverviewInt(int i) {
         String toReturn = Integer.toString(i);
         if (toReturn.length() == 1) {
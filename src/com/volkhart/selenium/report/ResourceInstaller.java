@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Copies the static report assets (style sheet and icons) into a resource
+ * directory exactly once per process. Many reports generated concurrently
+ * share the same resource directory, so installation is serialized per target
+ * file and skipped entirely when an identical copy is already present.
+ *
+ * @author Marius Volkhart
+ */
+final class ResourceInstaller {
+
+    /**
+     * Resource contents keyed by the resource URL, loaded once from the
+     * classpath.
+     */
+    private static final ConcurrentMap<String, byte[]> sContents = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * Absolute paths of target files that have already been verified or
+     * written by this process. The value is the lock used while installing.
+     */
+    private static final ConcurrentMap<String, Object> sTargets = new ConcurrentHashMap<String, Object>();
+    private static final ConcurrentMap<String, Boolean> sInstalled = new ConcurrentHashMap<String, Boolean>();
+
+    // Need private constructor to avoid instantiation
+    private ResourceInstaller() {
+    }
+
+    /**
+     * Ensures that {@code resourceDir} contains an up-to-date copy of the
+     * resource at {@code url}.
+     *
+     * @param url The classpath resource to install.
+     * @param resourceDir The directory the resource is copied into.
+     * @return The file name of the installed resource, or null if it could not
+     *         be installed.
+     */
+    static String install(URL url, File resourceDir) {
+        String base = url.getFile();
+        base = base.substring(base.lastIndexOf('/') + 1);
+
+        File target = new File(resourceDir, base);
+        String key = target.getAbsolutePath();
+        if (sInstalled.containsKey(key)) {
+            return base;
+        }
+
+        Object lock = new Object();
+        Object existing = sTargets.putIfAbsent(key, lock);
+        if (existing != null) {
+            lock = existing;
+        }
+
+        synchronized (lock) {
+            if (sInstalled.containsKey(key)) {
+                return base;
+            }
+            try {
+                byte[] content = load(url);
+                if (!isCurrent(target, content)) {
+                    write(target, content);
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            sInstalled.put(key, Boolean.TRUE);
+        }
+        return base;
+    }
+
+    private static byte[] load(URL url) throws IOException {
+        String key = url.toExternalForm();
+        byte[] content = sContents.get(key);
+        if (content == null) {
+            InputStream input = url.openStream();
+            try {
+                content = ByteStreams.toByteArray(input);
+            } finally {
+                Closeables.closeQuietly(input);
+            }
+            sContents.putIfAbsent(key, content);
+        }
+        return content;
+    }
+
+    /**
+     * Returns true if {@code target} already holds exactly {@code content}.
+     * The length is compared first so that most stale files are detected
+     * without reading them.
+     */
+    private static boolean isCurrent(File target, byte[] content) throws IOException {
+        if (!target.isFile() || target.length() != content.length) {
+            return false;
+        }
+        return Arrays.equals(Files.toByteArray(target), content);
+    }
+
+    /**
+     * Writes to a temporary sibling and renames it into place so that other
+     * processes sharing the directory never observe a partially written file.
+     */
+    private static void write(File target, byte[] content) throws IOException {
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            Files.write(content, temp);
+            if (!temp.renameTo(target)) {
+                // Some platforms refuse to rename over an existing file
+                target.delete();
+                if (!temp.renameTo(target)) {
+                    throw new IOException("Unable to install " + target);
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+}
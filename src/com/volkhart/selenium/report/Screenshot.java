@@ -20,6 +20,8 @@ import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.internal.WrapsDriver;
 import org.openqa.selenium.remote.Augmenter;
 
 import java.io.File;
@@ -78,12 +80,26 @@ public class Screenshot {
         return sScreenshot.get();
     }
 
+    /**
+     * Discards the Screenshot of the current thread, so the next call to
+     * {@link #get()} on it returns a new one. Threads that run more than one
+     * test must call this between tests.
+     */
+    public static void release() {
+        sScreenshot.remove();
+    }
+
     /**
      * Sets the {@link WebDriver} from which this Screenshot will capture images
      * 
      * @param driver The WebDriver instance
      */
     public void setWebDriver(WebDriver driver) {
+        // Wrappers such as EventFiringWebDriver only take screenshots if the
+        // driver they wrap can, and a remote session only can once augmented
+        while (driver instanceof WrapsDriver) {
+            driver = ((WrapsDriver) driver).getWrappedDriver();
+        }
         mCamera = (TakesScreenshot) new Augmenter().augment(driver);
     }
 
@@ -91,15 +107,36 @@ public class Screenshot {
      * Captures the snapshot of the webpage.
      * 
      * @return The file path to where the image is stored starting with the
-     *         non-specific screenshot directory
+     *         non-specific screenshot directory, or null if this thread has
+     *         no WebDriver or its browser is gone
      */
     public String take() {
-        File srcFile = mCamera.getScreenshotAs(OutputType.FILE);
+        if (mCamera == null) {
+            return null;
+        }
+        File srcFile;
+        try {
+            srcFile = mCamera.getScreenshotAs(OutputType.FILE);
+        } catch (WebDriverException e) {
+            // A failure must still be reported when the browser has crashed
+            return null;
+        }
         String path = getRelativeFilePath(srcFile);
         mFiles.put(path, srcFile);
         return path;
     }
 
+    /**
+     * Deletes the snapshots taken so far, so they are not written with the
+     * report.
+     */
+    void discard() {
+        for (File file : mFiles.values()) {
+            file.delete();
+        }
+        mFiles.clear();
+    }
+
     void generateReport(String path) {
 
         // Delete the directory that contains the images so if re-running a test
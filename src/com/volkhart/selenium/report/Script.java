@@ -17,9 +17,10 @@
 package com.volkhart.selenium.report;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Provides a high-level way of separating tests into segments.
@@ -31,18 +32,32 @@ public class Script {
     static final String DEFAULT_TITLE = "Default Script Title";
 
     private final String mName;
-    private ArrayList<Function> mElements;
+    private final ArrayList<Function> mElements = new ArrayList<Function>();
+    private final List<Function> mElementsView = Collections.unmodifiableList(mElements);
+    private final StatusCounts mCounts = new StatusCounts();
     private Function mCurrentElement;
+    private final long mStart;
+    private long mEnd;
 
     Script(String name) {
+        this(name, System.nanoTime());
+    }
+
+    /**
+     * @param start The {@link System#nanoTime()} at which the Script started.
+     */
+    Script(String name, long start) {
 
         // Check for null since name won't be used until report is written at
         // which point failure will be untimely and hard to trace
         mName = Preconditions.checkNotNull(name);
-        mElements = new ArrayList<Function>();
+        mStart = start;
     }
 
     boolean add(Function e) {
+        if (mCurrentElement != null) {
+            mCurrentElement.finish(e.getStart());
+        }
         mCurrentElement = e;
         return mElements.add(e);
     }
@@ -51,11 +66,45 @@ public class Script {
         if (mCurrentElement == null) {
             add(new Function(Function.DEFAULT_TITLE));
         }
+        mCounts.count(e.getStatus());
         return mCurrentElement.add(e);
     }
 
-    Iterable<Function> getFunctions() {
-        return ImmutableList.copyOf(mElements);
+    /**
+     * Returns a read-only view of the functions. The view is not a copy, so it
+     * must not be iterated while functions are being added.
+     */
+    List<Function> getFunctions() {
+        return mElementsView;
+    }
+
+    /**
+     * Marks the end of this Script and of the Function currently running in
+     * it. Only the first call has an effect.
+     */
+    void finish(long nanoTime) {
+        if (mCurrentElement != null) {
+            mCurrentElement.finish(nanoTime);
+        }
+        if (mEnd == 0) {
+            mEnd = nanoTime;
+        }
+    }
+
+    Function getCurrentFunction() {
+        return mCurrentElement;
+    }
+
+    long getStart() {
+        return mStart;
+    }
+
+    /**
+     * Returns how long this Script ran in nanoseconds. Scripts that have not
+     * been finished are measured up until now.
+     */
+    long getDuration() {
+        return (mEnd == 0 ? System.nanoTime() : mEnd) - mStart;
     }
 
     String getName() {
@@ -63,19 +112,11 @@ public class Script {
     }
 
     int getFailureCount() {
-        int count = 0;
-        for (Function e : mElements) {
-            count += e.getFailureCount();
-        }
-        return count;
+        return mCounts.get(Event.Status.FAIL);
     }
 
     int getWarningCount() {
-        int count = 0;
-        for (Function e : mElements) {
-            count += e.getWarningCount();
-        }
-        return count;
+        return mCounts.get(Event.Status.WARNING);
     }
 
 }
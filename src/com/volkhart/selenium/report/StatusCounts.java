@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import java.util.Arrays;
+
+/**
+ * Running totals of {@link Event} instances per {@link Event.Status}, kept in
+ * a primitive array indexed by the status ordinal. Totals are updated as
+ * events are added so reading them never requires walking the events.
+ *
+ * @author Marius Volkhart
+ */
+final class StatusCounts {
+
+    private static final int STATUS_COUNT = Event.Status.values().length;
+
+    private final int[] mCounts = new int[STATUS_COUNT];
+
+    void count(Event.Status status) {
+        mCounts[status.ordinal()]++;
+    }
+
+    int get(Event.Status status) {
+        return mCounts[status.ordinal()];
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+    }
+
+}
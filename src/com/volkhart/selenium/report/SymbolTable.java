@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shares the strings held by {@link Event} instances. Tests that fail in a
+ * loop create thousands of Events with the same titles and the same stack
+ * traces; interning them keeps a single copy of each on the heap.
+ * <p>
+ * Strings are interned weakly, so they are released once no Event refers to
+ * them. Stack traces are deduplicated as a whole: the frames of the most
+ * recently seen {@value #MAX_STACK_TRACES} distinct call stacks are kept,
+ * and an Event raised from a known call stack reuses the list instead of
+ * formatting and filtering its frames again. The call stacks are kept for
+ * one run and forgotten by {@link Reporter#finishRun()}.
+ *
+ * @author Marius Volkhart
+ */
+final class SymbolTable {
+
+    static final int MAX_STACK_TRACES = 1024;
+
+    private static final Interner<String> sStrings = Interners.newWeakInterner();
+    private static final Cache<CallStack, List<String>> sStackTraces = CacheBuilder.newBuilder()
+            .maximumSize(MAX_STACK_TRACES).build();
+
+    private SymbolTable() {
+    }
+
+    /**
+     * Returns the shared instance of the string, or null if it is null.
+     */
+    static String intern(String string) {
+        return string == null ? null : sStrings.intern(string);
+    }
+
+    /**
+     * Forgets the call stacks seen so far. Events keep their frames.
+     */
+    static void clear() {
+        sStackTraces.invalidateAll();
+    }
+
+    /**
+     * Returns the frames of the stack trace worth showing in the report,
+     * leaving out the JDK and the framework. The returned list is shared and
+     * must not be modified.
+     *
+     * @param elements The stack trace, as returned by
+     *            {@link Thread#getStackTrace()}. Its first element, the call
+     *            to getStackTrace itself, is skipped.
+     */
+    static List<String> stackTrace(StackTraceElement[] elements) {
+        CallStack key = new CallStack(elements);
+        List<String> frames = sStackTraces.getIfPresent(key);
+        if (frames == null) {
+            ImmutableList.Builder<String> builder = ImmutableList.builder();
+            for (int i = 1; i < elements.length; i++) {
+                String trace = elements[i].toString();
+                if (!trace.startsWith("java.")
+                        && !trace.startsWith("com.volkhart.selenium.framework")) {
+                    builder.add(intern(trace));
+                }
+            }
+            frames = builder.build();
+            sStackTraces.put(key, frames);
+        }
+        return frames;
+    }
+
+    /**
+     * A stack trace compared by its frames, with the hash computed once.
+     */
+    private static final class CallStack {
+
+        private final StackTraceElement[] mElements;
+        private final int mHash;
+
+        private CallStack(StackTraceElement[] elements) {
+            mElements = elements;
+            mHash = Arrays.hashCode(elements);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CallStack && ((CallStack) obj).mHash == mHash
+                    && Arrays.equals(((CallStack) obj).mElements, mElements);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fragment of report HTML with {@code {}} placeholders. The static parts are
+ * encoded to bytes once when the template is compiled so rendering only
+ * copies bytes and encodes the dynamic values.
+ *
+ * @author Marius Volkhart
+ */
+final class Template {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private final byte[][] mFragments;
+
+    private Template(byte[][] fragments) {
+        mFragments = fragments;
+    }
+
+    /**
+     * Compiles the source into a template. Every {@code {}} in the source is
+     * a slot that is filled, in order, when the template is rendered.
+     *
+     * @param source The HTML source of the template.
+     * @return The compiled template.
+     */
+    static Template compile(String source) {
+        List<byte[]> fragments = new ArrayList<byte[]>();
+        int start = 0;
+        int index;
+        while ((index = source.indexOf(PLACEHOLDER, start)) >= 0) {
+            fragments.add(source.substring(start, index).getBytes(Charsets.UTF_8));
+            start = index + PLACEHOLDER.length();
+        }
+        fragments.add(source.substring(start).getBytes(Charsets.UTF_8));
+        return new Template(fragments.toArray(new byte[fragments.size()][]));
+    }
+
+    /**
+     * Renders a template that has no slots.
+     */
+    void render(HtmlWriter writer) throws IOException {
+        checkSlots(0);
+        writer.write(mFragments[0]);
+    }
+
+    void render(HtmlWriter writer, String value) throws IOException {
+        checkSlots(1);
+        writer.write(mFragments[0]);
+        writer.write(value);
+        writer.write(mFragments[1]);
+    }
+
+    void render(HtmlWriter writer, String first, String second) throws IOException {
+        checkSlots(2);
+        writer.write(mFragments[0]);
+        writer.write(first);
+        writer.write(mFragments[1]);
+        writer.write(second);
+        writer.write(mFragments[2]);
+    }
+
+    /**
+     * Renders the template with the values written unescaped into the slots.
+     */
+    void render(HtmlWriter writer, String... values) throws IOException {
+        checkSlots(values.length);
+        for (int i = 0; i < values.length; i++) {
+            writer.write(mFragments[i]);
+            writer.write(values[i]);
+        }
+        writer.write(mFragments[values.length]);
+    }
+
+    private void checkSlots(int count) {
+        Preconditions.checkArgument(mFragments.length == count + 1,
+                "Template has %s slots but %s values were given", mFragments.length - 1, count);
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the trend page of a test, which compares its last runs on every
+ * browser and points out regressions: a pass rate lower than in the previous
+ * run, a run noticeably slower than the median of the runs before it, and
+ * functions that slowed down in the latest run.
+ *
+ * @author Marius Volkhart
+ */
+final class TrendPage {
+
+    static final String FILE_NAME = "trends.html";
+
+    /**
+     * A run or function is flagged as slower when it takes this many times
+     * the median of the earlier runs.
+     */
+    private static final double RUN_SLOWDOWN = 1.2;
+    private static final double FUNCTION_SLOWDOWN = 1.5;
+
+    /**
+     * Function slowdowns smaller than this are noise, whatever the ratio.
+     */
+    private static final long MIN_FUNCTION_SLOWDOWN_NANOS = 100 * 1000000L;
+
+    private static final Template HEAD = Template.compile(
+            "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>{} trends</title>\n");
+    private static final Template STYLESHEET = Template.compile(
+            "<link rel=\"stylesheet\" type=\"text/css\" href=\"{}\">\n");
+    private static final Template HEADER = Template.compile(
+            "</head>\n<body>\n<h1>{} trends<div class=\"titleSeparator\"></div></h1>\n"
+                    + "Last {} runs per browser, newest first.<br/>");
+    private static final Template BROWSER_START = Template.compile(
+            "\n<div class=\"category\">\n<a href=\"{}.html\">{}</a><div class=\"categorySeparator\"></div>\n</div>\n<table class=\"overview\">"
+                    + "\n<tr>\n<th>Run</th><th>Pass rate</th><th>Failures</th><th>Warnings</th><th>Duration</th><th></th>\n</tr>");
+    private static final Template RUN = Template.compile(
+            "\n<tr>\n<td>{}</td><td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td>"
+                    + "<td class=\"durationColumn\">{}</td><td class=\"durationColumn\">{}</td><td class=\"regression\">{}</td>\n</tr>");
+    private static final Template SLOWER_START = Template.compile(
+            "\n<table class=\"overview\">\n<tr>\n<th>Slower in the latest run</th><th>Median</th><th>Latest</th>\n</tr>");
+    private static final Template SLOWER_FUNCTION = Template.compile(
+            "\n<tr>\n<td class=\"functionColumn\">{}</td><td class=\"durationColumn\">{}</td>"
+                    + "<td class=\"durationColumn regression\">{}</td>\n</tr>");
+    private static final Template TABLE_END = Template.compile("\n</table>");
+    private static final Template END = Template.compile("\n</body>\n</html>");
+
+    private TrendPage() {
+    }
+
+    /**
+     * Adds a run to the history of its browser and rewrites the trend page of
+     * the test from the last runs of every browser.
+     *
+     * @param dir The directory of the test, which holds the reports of every
+     *            browser.
+     * @param title The title of the test.
+     * @param browser The browser the run used.
+     * @param run The summary of the run.
+     * @param count The number of runs shown per browser.
+     * @param stylesheet The URL of the report stylesheet, or null.
+     */
+    static synchronized void update(File dir, String title, String browser, TrendStore.Run run,
+            int count, String stylesheet) throws IOException {
+        new TrendStore(dir, browser).append(run);
+
+        Map<String, List<TrendStore.Run>> runs = new TreeMap<String, List<TrendStore.Run>>();
+        for (String name : TrendStore.browsers(dir)) {
+            runs.put(name, new TrendStore(dir, name).readLast(count));
+        }
+        write(new File(dir, FILE_NAME), title, stylesheet, runs, count);
+    }
+
+    private static void write(File file, String title, String stylesheet,
+            Map<String, List<TrendStore.Run>> runs, int count) throws IOException {
+        HtmlWriter writer = new HtmlWriter(file);
+        try {
+            HEAD.render(writer, title);
+            if (stylesheet != null) {
+                STYLESHEET.render(writer, stylesheet);
+            }
+            HEADER.render(writer, title, Integer.toString(count));
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+            for (Map.Entry<String, List<TrendStore.Run>> browser : runs.entrySet()) {
+                writeBrowser(writer, format, browser.getKey(), browser.getValue());
+            }
+            END.render(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeBrowser(HtmlWriter writer, SimpleDateFormat format, String browser,
+            List<TrendStore.Run> runs) throws IOException {
+        BROWSER_START.render(writer, browser, browser);
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            TrendStore.Run run = runs.get(i);
+            RUN.render(writer, format.format(new Date(run.getTime())),
+                    String.format("%.1f%%", run.getPassRate() * 100),
+                    Integer.toString(run.getFailures()), Integer.toString(run.getWarnings()),
+                    Reporter.formatDuration(run.getDuration()), describeRegression(runs, i));
+        }
+        TABLE_END.render(writer);
+
+        if (runs.size() > 1) {
+            writeSlowerFunctions(writer, runs);
+        }
+    }
+
+    /**
+     * Describes how the run at the index regressed compared to the runs
+     * before it, or returns an empty string.
+     */
+    private static String describeRegression(List<TrendStore.Run> runs, int index) {
+        if (index == 0) {
+            return "";
+        }
+        TrendStore.Run run = runs.get(index);
+        List<String> regressions = new ArrayList<String>(2);
+        if (run.getPassRate() < runs.get(index - 1).getPassRate()) {
+            regressions.add("pass rate dropped");
+        }
+
+        long[] earlier = new long[index];
+        for (int i = 0; i < index; i++) {
+            earlier[i] = runs.get(i).getDuration();
+        }
+        long median = median(earlier, index);
+        if (median > 0 && run.getDuration() > median * RUN_SLOWDOWN) {
+            regressions.add(String.format("%.1fx slower", (double) run.getDuration() / median));
+        }
+
+        StringBuilder description = new StringBuilder();
+        for (String regression : regressions) {
+            description.append(description.length() == 0 ? "" : ", ").append(regression);
+        }
+        return description.toString();
+    }
+
+    private static void writeSlowerFunctions(HtmlWriter writer, List<TrendStore.Run> runs)
+            throws IOException {
+        TrendStore.Run latest = runs.get(runs.size() - 1);
+        boolean started = false;
+        long[] earlier = new long[runs.size() - 1];
+        for (Map.Entry<String, Long> function : latest.getFunctions().entrySet()) {
+            int count = 0;
+            for (int i = 0; i < earlier.length; i++) {
+                Long duration = runs.get(i).getFunctions().get(function.getKey());
+                if (duration != null) {
+                    earlier[count++] = duration.longValue();
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            long median = median(earlier, count);
+            long duration = function.getValue().longValue();
+            if (duration > median * FUNCTION_SLOWDOWN
+                    && duration - median > MIN_FUNCTION_SLOWDOWN_NANOS) {
+                if (!started) {
+                    SLOWER_START.render(writer);
+                    started = true;
+                }
+                SLOWER_FUNCTION.render(writer, function.getKey(), Reporter.formatDuration(median),
+                        Reporter.formatDuration(duration));
+            }
+        }
+        if (started) {
+            TABLE_END.render(writer);
+        }
+    }
+
+    /**
+     * Returns the median of the first {@code count} values, reordering them.
+     */
+    private static long median(long[] values, int count) {
+        Arrays.sort(values, 0, count);
+        return values[count / 2];
+    }
+
+}
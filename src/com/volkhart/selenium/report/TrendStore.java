@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only history of run summaries for one test on one browser.
+ * <p>
+ * Summaries are appended as tab separated lines to
+ * {@code <browser>}{@value #EXTENSION}. Next to it,
+ * {@code <browser>}{@value #INDEX_EXTENSION} holds the offset of every
+ * summary as an 8 byte integer, so the last N runs are found by reading the
+ * last N offsets and everything after the first of them, regardless of how
+ * long the history is.
+ *
+ * @author Marius Volkhart
+ */
+final class TrendStore {
+
+    static final String EXTENSION = ".trend";
+    static final String INDEX_EXTENSION = ".trend.idx";
+
+    private static final String RUN = "run";
+    private static final String FUNCTION = "fn";
+
+    private final File mData;
+    private final File mIndex;
+
+    /**
+     * @param dir The directory of the test, which holds the reports of every
+     *            browser.
+     * @param browser The browser whose history this is.
+     */
+    TrendStore(File dir, String browser) {
+        mData = new File(dir, browser + EXTENSION);
+        mIndex = new File(dir, browser + INDEX_EXTENSION);
+    }
+
+    /**
+     * Returns the browsers that have a history in the directory.
+     */
+    static List<String> browsers(File dir) {
+        List<String> browsers = new ArrayList<String>();
+        String[] names = dir.list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(EXTENSION);
+            }
+        });
+        if (names != null) {
+            for (String name : names) {
+                browsers.add(name.substring(0, name.length() - EXTENSION.length()));
+            }
+        }
+        return browsers;
+    }
+
+    /**
+     * Appends a run to the history.
+     */
+    void append(Run run) throws IOException {
+        synchronized (TrendStore.class) {
+            byte[] record = run.toRecord().getBytes(Charsets.UTF_8);
+            long offset = mData.length();
+
+            FileOutputStream data = new FileOutputStream(mData, true);
+            try {
+                data.write(record);
+            } finally {
+                data.close();
+            }
+
+            DataOutputStream index = new DataOutputStream(new FileOutputStream(mIndex, true));
+            try {
+                index.writeLong(offset);
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Returns up to the last {@code count} runs, oldest first.
+     */
+    List<Run> readLast(int count) throws IOException {
+        synchronized (TrendStore.class) {
+            List<Run> runs = new ArrayList<Run>();
+            if (!mIndex.isFile() || !mData.isFile()) {
+                return runs;
+            }
+
+            long offset;
+            RandomAccessFile index = new RandomAccessFile(mIndex, "r");
+            try {
+                long entries = index.length() / 8;
+                if (entries == 0) {
+                    return runs;
+                }
+                index.seek(Math.max(0, entries - count) * 8);
+                offset = index.readLong();
+            } finally {
+                index.close();
+            }
+
+            byte[] tail;
+            RandomAccessFile data = new RandomAccessFile(mData, "r");
+            try {
+                tail = new byte[(int) (data.length() - offset)];
+                data.seek(offset);
+                data.readFully(tail);
+            } finally {
+                data.close();
+            }
+
+            Run run = null;
+            for (String line : Splitter.on('\n').omitEmptyStrings()
+                    .split(new String(tail, Charsets.UTF_8))) {
+                Iterator<String> fields = Splitter.on('\t').split(line).iterator();
+                String type = fields.next();
+                if (RUN.equals(type)) {
+                    run = new Run(Long.parseLong(fields.next()), Integer.parseInt(fields.next()),
+                            Integer.parseInt(fields.next()), Integer.parseInt(fields.next()),
+                            Long.parseLong(fields.next()));
+                    runs.add(run);
+                } else if (FUNCTION.equals(type) && run != null) {
+                    String name = fields.next();
+                    run.addFunction(name, Long.parseLong(fields.next()));
+                }
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * The summary of a single run.
+     */
+    static final class Run {
+
+        private final long mTime;
+        private final int mPasses;
+        private final int mFailures;
+        private final int mWarnings;
+        private final long mDuration;
+        private final Map<String, Long> mFunctions = new LinkedHashMap<String, Long>();
+
+        /**
+         * @param time When the run finished, in milliseconds since the epoch.
+         * @param duration How long the run took, in nanoseconds.
+         */
+        Run(long time, int passes, int failures, int warnings, long duration) {
+            mTime = time;
+            mPasses = passes;
+            mFailures = failures;
+            mWarnings = warnings;
+            mDuration = duration;
+        }
+
+        /**
+         * Records how long a Function took, in nanoseconds.
+         */
+        void addFunction(String name, long duration) {
+            mFunctions.put(name, Long.valueOf(duration));
+        }
+
+        long getTime() {
+            return mTime;
+        }
+
+        int getPasses() {
+            return mPasses;
+        }
+
+        int getFailures() {
+            return mFailures;
+        }
+
+        int getWarnings() {
+            return mWarnings;
+        }
+
+        long getDuration() {
+            return mDuration;
+        }
+
+        Map<String, Long> getFunctions() {
+            return mFunctions;
+        }
+
+        /**
+         * Returns the share of checks that passed, from 0 to 1. A run without
+         * checks counts as fully passing.
+         */
+        double getPassRate() {
+            int total = mPasses + mFailures + mWarnings;
+            return total == 0 ? 1 : (double) mPasses / total;
+        }
+
+        private String toRecord() {
+            StringBuilder record = new StringBuilder();
+            record.append(RUN).append('\t').append(mTime).append('\t').append(mPasses)
+                    .append('\t').append(mFailures).append('\t').append(mWarnings).append('\t')
+                    .append(mDuration).append('\n');
+            for (Map.Entry<String, Long> function : mFunctions.entrySet()) {
+                record.append(FUNCTION).append('\t')
+                        .append(function.getKey().replace('\t', ' ').replace('\n', ' '))
+                        .append('\t').append(function.getValue()).append('\n');
+            }
+            return record.toString();
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.test.framework;
+
+import com.google.common.io.Files;
+import com.volkhart.selenium.framework.Execution;
+import com.volkhart.selenium.framework.FakeDriverFactory;
+import com.volkhart.selenium.framework.LaunchProfile;
+import com.volkhart.selenium.framework.RetryPolicy;
+import com.volkhart.selenium.framework.Test.Builder;
+import com.volkhart.selenium.util.Verify;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Runs {@link Execution} once against simulated browsers. Execution can only
+ * be started once per JVM, so every test checks the same run.
+ */
+public class TestExecution {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static File sOutput;
+    private static FakeDriverFactory sHealthy;
+    private static FakeDriverFactory sBroken;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        sOutput = Files.createTempDir();
+        sHealthy = new FakeDriverFactory().setCommandFailureRate(0.05);
+        sBroken = new FakeDriverFactory().setCommandFailureRate(1);
+
+        Execution.setDriverFactory(sHealthy);
+        Execution.setMaxConcurrentTests(4);
+        Execution.setRetryPolicy(new RetryPolicy(MAX_ATTEMPTS));
+        for (int i = 0; i < 10; i++) {
+            Execution.queue(builder("Healthy " + i), DesiredCapabilities.chrome(),
+                    DesiredCapabilities.firefox());
+        }
+
+        // A viewport is requested through the capabilities, so the session
+        // starts and the test fails on closing the browser
+        Builder broken = builder("Broken");
+        broken.setDriverFactory(sBroken);
+        broken.setLaunchProfile(LaunchProfile.viewport(1024, 768));
+        Execution.queue(broken, DesiredCapabilities.chrome());
+
+        Builder failing = new FailingBuilder("Failing");
+        failing.setPath(sOutput.getPath());
+        failing.setDriverFactory(new FakeDriverFactory());
+        Execution.queue(failing, DesiredCapabilities.firefox());
+
+        Execution.start();
+    }
+
+    private static Builder builder(String title) {
+        Builder builder = new Builder(title);
+        builder.setPath(sOutput.getPath());
+        return builder;
+    }
+
+    @Test
+    public void testSessionsQuit() {
+        Assert.assertTrue(sHealthy.getCreatedSessions() >= 20);
+        Assert.assertEquals(0, sHealthy.getOpenSessions());
+        Assert.assertEquals(0, sBroken.getOpenSessions());
+    }
+
+    @Test
+    public void testRetries() {
+        // Every attempt starts a new session, which fails on its first
+        // command
+        Assert.assertEquals(MAX_ATTEMPTS, sBroken.getCreatedSessions());
+
+        List<String> failed = Execution.getFailedTests();
+        Assert.assertTrue(failed.toString(), failed.contains("Broken (chrome)"));
+    }
+
+    @Test
+    public void testVerificationFailures() {
+        List<String> failed = Execution.getFailedTests();
+        Assert.assertTrue(failed.toString(), failed.contains("Failing (firefox)"));
+        Assert.assertFalse(failed.toString(), failed.contains("Healthy 0 (chrome)"));
+    }
+
+    @Test
+    public void testReportLocation() {
+        Assert.assertTrue(new File(sOutput, "Healthy_0/chrome.html").isFile());
+        Assert.assertTrue(new File(sOutput, "Healthy_0/firefox.html").isFile());
+
+        // Tests that threw still get a report
+        Assert.assertTrue(new File(sOutput, "Broken/chrome.html").isFile());
+    }
+
+    @Test
+    public void testReportLocationWithoutSession() throws Exception {
+        Builder unstarted = builder("Unstarted");
+        unstarted.setDriverFactory(new FakeDriverFactory().setSessionFailureRate(1));
+        unstarted.setCapabilities(DesiredCapabilities.chrome());
+        try {
+            unstarted.call();
+            Assert.fail("The session should not have started");
+        } catch (WebDriverException e) {
+            // Expected
+        }
+        Assert.assertTrue(new File(sOutput, "Unstarted/chrome.html").isFile());
+    }
+
+    private static class FailingBuilder extends Builder {
+
+        private FailingBuilder(String title) {
+            super(title);
+        }
+
+        @Override
+        public com.volkhart.selenium.framework.Test build() {
+            return new com.volkhart.selenium.framework.Test(acquireDriver(), "firefox", mTitle,
+                    mPath) {
+
+                @Override
+                protected void doTest() {
+                    Verify.verifyTrue("Fails on purpose", false);
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.test.framework;
+
+import com.volkhart.selenium.framework.GridStatusCapacity;
+import com.volkhart.selenium.framework.SlotMap;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+public class TestGridCapacity {
+
+    // One node with two Firefox slots, one of them busy, and a Chrome slot
+    private static final String STATUS = "{\"value\": {\"ready\": true, \"nodes\": [{"
+            + "\"availability\": \"UP\", \"maxSessions\": 3, \"slots\": ["
+            + "{\"session\": null, \"stereotype\": {\"browserName\": \"firefox\","
+            + " \"platformName\": \"linux\"}},"
+            + "{\"session\": {\"sessionId\": \"1\"}, \"stereotype\": {\"browserName\": \"firefox\","
+            + " \"platformName\": \"linux\"}},"
+            + "{\"session\": null, \"stereotype\": {\"browserName\": \"chrome\","
+            + " \"browserVersion\": \"23\"}}]}]}}";
+
+    @Test
+    public void testSlotMapMatching() {
+        SlotMap slots = new SlotMap().addSlots(new DesiredCapabilities("internet explorer", "9",
+                Platform.XP), 1);
+        Assert.assertTrue(slots.reserve(new DesiredCapabilities("internet explorer", "",
+                Platform.ANY)));
+
+        // The only slot is taken now
+        Assert.assertFalse(slots.reserve(DesiredCapabilities.internetExplorer()));
+        Assert.assertFalse(slots.reserve(new DesiredCapabilities("internet explorer", "9",
+                Platform.WINDOWS)));
+        slots.release(DesiredCapabilities.internetExplorer());
+        Assert.assertTrue(slots.reserve(new DesiredCapabilities("internet explorer", "9",
+                Platform.WINDOWS)));
+
+        // Browsers the grid does not have are left to fail
+        Assert.assertTrue(slots.reserve(new DesiredCapabilities("internet explorer", "8",
+                Platform.XP)));
+        Assert.assertTrue(slots.reserve(new DesiredCapabilities("internet explorer", "9",
+                Platform.MAC)));
+    }
+
+    @Test
+    public void testStatus() throws Exception {
+        StatusCapacity grid = new StatusCapacity(STATUS);
+        DesiredCapabilities firefox = new DesiredCapabilities("firefox", "", Platform.LINUX);
+        Assert.assertTrue(grid.reserve(firefox));
+        Assert.assertFalse(grid.reserve(firefox));
+        Assert.assertTrue(grid.reserve(new DesiredCapabilities("chrome", "23", Platform.ANY)));
+        Assert.assertFalse(grid.reserve(DesiredCapabilities.chrome()));
+
+        // Only Chrome 23 is on the grid
+        Assert.assertTrue(grid.reserve(new DesiredCapabilities("chrome", "24", Platform.ANY)));
+    }
+
+    @Test
+    public void testReservationsOutlivePolls() throws Exception {
+        StatusCapacity grid = new StatusCapacity(STATUS);
+        grid.setPollInterval(0, TimeUnit.SECONDS);
+        DesiredCapabilities chrome = DesiredCapabilities.chrome();
+        Assert.assertTrue(grid.reserve(chrome));
+
+        // The session has not started, so the grid still shows the slot as
+        // free
+        Assert.assertFalse(grid.reserve(chrome));
+        Assert.assertEquals(2, grid.mPolls);
+
+        grid.release(chrome);
+        Assert.assertTrue(grid.reserve(chrome));
+    }
+
+    @Test
+    public void testReservationsNextToForeignSessions() throws Exception {
+        StatusCapacity grid = new StatusCapacity(STATUS);
+        grid.setPollInterval(0, TimeUnit.SECONDS);
+        DesiredCapabilities firefox = DesiredCapabilities.firefox();
+        Assert.assertTrue(grid.reserve(firefox));
+
+        // The busy Firefox slot belongs to another user of the grid, so it
+        // does not hold the session reserved above
+        Assert.assertFalse(grid.reserve(firefox));
+        Assert.assertEquals(2, grid.mPolls);
+    }
+
+    @Test
+    public void testStatusWithoutNodes() throws Exception {
+        StatusCapacity grid = new StatusCapacity("{\"value\": {\"ready\": true}}");
+        grid.setPollInterval(0, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(grid.reserve(DesiredCapabilities.firefox()));
+        }
+        Assert.assertEquals(10, grid.mPolls);
+    }
+
+    private static class StatusCapacity extends GridStatusCapacity {
+
+        private final String mStatus;
+        private int mPolls;
+
+        private StatusCapacity(String status) throws MalformedURLException {
+            super("http://localhost:4444/");
+            mStatus = status;
+        }
+
+        @Override
+        protected String readStatus() throws IOException {
+            mPolls++;
+            return mStatus;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.test.report;
+
+import com.volkhart.selenium.report.LatencyHistogram;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMin());
+        Assert.assertEquals(0, histogram.getMean());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MILLIS);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1 * MILLIS, histogram.getMin());
+        Assert.assertEquals(1000 * MILLIS, histogram.getMax());
+        assertWithin("median", 500 * MILLIS, histogram.getValueAtPercentile(50));
+        assertWithin("99th", 990 * MILLIS, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1000 * MILLIS, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(5 * MILLIS);
+        second.record(15 * MILLIS);
+        first.add(second);
+
+        Assert.assertEquals(2, first.getCount());
+        Assert.assertEquals(5 * MILLIS, first.getMin());
+        Assert.assertEquals(15 * MILLIS, first.getMax());
+        Assert.assertEquals(10 * MILLIS, first.getMean());
+    }
+
+    /**
+     * Buckets are accurate to within about 3%.
+     */
+    private static void assertWithin(String message, long expected, long actual) {
+        Assert.assertTrue(message + " expected about " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected * 0.04);
+    }
+
+}
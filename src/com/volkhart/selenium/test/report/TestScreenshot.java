@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.test.report;
+
+import com.google.common.io.Files;
+import com.volkhart.selenium.framework.DriverFactory;
+import com.volkhart.selenium.framework.FakeDriverFactory;
+import com.volkhart.selenium.framework.LaunchProfile;
+import com.volkhart.selenium.report.Reporter;
+import com.volkhart.selenium.report.Screenshot;
+import com.volkhart.selenium.util.Verify;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks that failures get a screenshot whatever wraps the session.
+ */
+public class TestScreenshot {
+
+    // A 1x1 PNG
+    private static final String PNG = "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAQAAAC1HAwCAAAAC0lEQVR42mNkYAAA"
+            + "AAYAAjCB0C8AAAAASUVORK5CYII=";
+
+    @Before
+    public void setUp() {
+        // Start from a Reporter of our own, whatever ran on this thread before
+        Reporter.release();
+        Screenshot.release();
+    }
+
+    @After
+    public void tearDown() {
+        Reporter.release();
+        Screenshot.release();
+    }
+
+    @Test
+    public void testRemoteSessionWithPageTimings() throws Exception {
+        StubExecutor executor = new StubExecutor();
+        File output = run("Remote", new RemoteFactory(executor));
+        Assert.assertEquals(1, executor.mScreenshots);
+        assertScreenshotWritten(new File(output, "Remote/chrome_screenshots"));
+    }
+
+    @Test
+    public void testFakeSessionWithPageTimings() throws Exception {
+        File output = run("Fake", new FakeDriverFactory());
+        assertScreenshotWritten(new File(output, "Fake/chrome_screenshots"));
+    }
+
+    /**
+     * Runs a test that loads a page and fails a check, and returns where its
+     * report went.
+     */
+    private static File run(String title, DriverFactory factory) throws Exception {
+        File output = Files.createTempDir();
+        FailingBuilder builder = new FailingBuilder(title);
+        builder.setPath(output.getPath());
+        builder.setCapabilities(DesiredCapabilities.chrome());
+        builder.setLaunchProfile(LaunchProfile.viewport(1024, 768));
+        builder.setDriverFactory(factory);
+        builder.setPageTimings(true);
+
+        Assert.assertFalse(builder.call().booleanValue());
+        return output;
+    }
+
+    private static void assertScreenshotWritten(File directory) {
+        File[] screenshots = directory.listFiles();
+        Assert.assertNotNull(directory + " is missing", screenshots);
+        Assert.assertEquals(1, screenshots.length);
+    }
+
+    private static class FailingBuilder extends com.volkhart.selenium.framework.Test.Builder {
+
+        private FailingBuilder(String title) {
+            super(title);
+        }
+
+        @Override
+        public com.volkhart.selenium.framework.Test build() {
+            return new com.volkhart.selenium.framework.Test(acquireDriver(), "chrome", mTitle,
+                    mPath) {
+
+                @Override
+                protected void doTest() {
+                    mDriver.get("http://example.com/");
+                    Verify.verifyTrue("Fails on purpose", false);
+                }
+            };
+        }
+    }
+
+    private static class RemoteFactory implements DriverFactory {
+
+        private final CommandExecutor mExecutor;
+
+        private RemoteFactory(CommandExecutor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public WebDriver create(DesiredCapabilities capabilities) {
+            return new RemoteWebDriver(mExecutor, capabilities);
+        }
+    }
+
+    /**
+     * Answers the commands of a RemoteWebDriver without a server.
+     */
+    private static class StubExecutor implements CommandExecutor {
+
+        private int mScreenshots;
+
+        @Override
+        public Response execute(Command command) {
+            Response response = new Response(new SessionId("stub"));
+            response.setStatus(0);
+            if (DriverCommand.NEW_SESSION.equals(command.getName())) {
+                Map<String, Object> capabilities = new HashMap<String, Object>();
+                capabilities.put("browserName", "chrome");
+                capabilities.put("takesScreenshot", Boolean.TRUE);
+                capabilities.put("javascriptEnabled", Boolean.TRUE);
+                response.setValue(capabilities);
+            } else if (DriverCommand.SCREENSHOT.equals(command.getName())) {
+                mScreenshots++;
+                response.setValue(PNG);
+            }
+            return response;
+        }
+    }
+
+}
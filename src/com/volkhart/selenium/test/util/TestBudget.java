@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.test.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.volkhart.selenium.report.Reporter;
+import com.volkhart.selenium.report.Screenshot;
+import com.volkhart.selenium.util.Budget;
+import com.volkhart.selenium.util.Verify;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+public class TestBudget {
+
+    private static final Runnable NOTHING = new Runnable() {
+
+        @Override
+        public void run() {
+        }
+    };
+
+    private Reporter mReporter;
+
+    @Before
+    public void setUp() {
+        // Start from a Reporter of our own, whatever ran on this thread before
+        Reporter.release();
+        mReporter = Reporter.get();
+        mReporter.setTitle("Budget");
+    }
+
+    @After
+    public void tearDown() {
+        Reporter.release();
+        Screenshot.release();
+    }
+
+    @Test
+    public void testWithinBudget() {
+        Assert.assertTrue(Verify.verifyDurationUnder("Within", new Budget(1, TimeUnit.HOURS)
+                .warmUp(1).repeat(5), NOTHING));
+        Assert.assertEquals(0, mReporter.getFailureCount());
+        Assert.assertEquals(0, mReporter.getWarningCount());
+    }
+
+    @Test
+    public void testOverBudget() {
+        Runnable sleep = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Assert.assertFalse(Verify.verifyDurationUnder("Over", new Budget(1,
+                TimeUnit.MILLISECONDS), sleep));
+        Assert.assertEquals(1, mReporter.getFailureCount());
+
+        // Over the warning threshold only warns
+        Assert.assertTrue(Verify.verifyDurationUnder("Warning", new Budget(1, TimeUnit.HOURS)
+                .warnAbove(1, TimeUnit.MILLISECONDS), sleep));
+        Assert.assertEquals(1, mReporter.getWarningCount());
+    }
+
+    @Test
+    public void testPercentileNames() throws Exception {
+        double[] percentiles = {
+                1, 2, 3, 11, 12, 13, 22, 90, 99.9
+        };
+        for (double percentile : percentiles) {
+            Verify.verifyDurationUnder("P" + percentile, new Budget(1, TimeUnit.HOURS).repeat(2)
+                    .percentile(percentile), NOTHING);
+        }
+
+        File output = Files.createTempDir();
+        mReporter.setOutputPath(output.getPath());
+        mReporter.generateReport();
+        String report = Files.toString(mReporter.getReportFile(), Charsets.UTF_8);
+        String[] names = {
+                "1st", "2nd", "3rd", "11th", "12th", "13th", "22nd", "90th", "99.9th"
+        };
+        for (String name : names) {
+            Assert.assertTrue(name, report.contains(name + " percentile of 2 runs"));
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.volkhart.selenium.report.CommandMetrics;
+import com.volkhart.selenium.report.LatencyHistogram;
+
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.support.ui.Wait;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Wait} that polls quickly at first and backs off exponentially.
+ * Most conditions are met within a few milliseconds, which a fixed 500 ms
+ * polling interval turns into a 500 ms wait; polling tightly first and
+ * slowing down only for conditions that take longer keeps both the waiting
+ * time and the number of remote calls low.
+ * <p>
+ * Like {@link org.openqa.selenium.support.ui.WebDriverWait}, a condition is
+ * met once it returns something other than null or false, and
+ * {@link NotFoundException}s thrown by the condition are ignored. The time
+ * spent in every wait is recorded and also reported as the {@code (wait)}
+ * entry of the thread's {@link CommandMetrics}.
+ * <p>
+ * Instances are meant to be used by a single test thread.
+ *
+ * @author Marius Volkhart
+ */
+public class AdaptiveWait implements Wait<WebDriver> {
+
+    private static final String METRIC = "(wait)";
+    private static final String TIMEOUT_METRIC = "(wait timeout)";
+
+    private static final long DEFAULT_MIN_INTERVAL_MILLIS = 10;
+    private static final long DEFAULT_MAX_INTERVAL_MILLIS = 500;
+    private static final double BACKOFF = 1.5;
+
+    private final WebDriver mDriver;
+    private final List<Class<? extends Throwable>> mIgnored = new ArrayList<Class<? extends Throwable>>();
+    private long mTimeoutNanos;
+    private long mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_INTERVAL_MILLIS);
+    private long mMaxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_INTERVAL_MILLIS);
+
+    private final LatencyHistogram mWaits = new LatencyHistogram();
+    private int mTimeouts;
+    private long mPolls;
+
+    /**
+     * @param driver The WebDriver passed to the conditions.
+     * @param timeout The default maximum time to wait for a condition.
+     * @param unit The unit of {@code timeout}.
+     */
+    public AdaptiveWait(WebDriver driver, long timeout, TimeUnit unit) {
+        mDriver = Preconditions.checkNotNull(driver);
+        mTimeoutNanos = unit.toNanos(timeout);
+        mIgnored.add(NotFoundException.class);
+    }
+
+    /**
+     * Sets the default maximum time to wait for a condition.
+     */
+    public AdaptiveWait withTimeout(long timeout, TimeUnit unit) {
+        mTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Sets the first and the longest interval between two polls. The
+     * interval grows by half after every unsuccessful poll.
+     */
+    public AdaptiveWait pollingBetween(long min, long max, TimeUnit unit) {
+        Preconditions.checkArgument(min > 0 && min <= max, "Invalid polling interval");
+        mMinIntervalNanos = unit.toNanos(min);
+        mMaxIntervalNanos = unit.toNanos(max);
+        return this;
+    }
+
+    /**
+     * Adds a type of exception that is treated like an unmet condition.
+     */
+    public AdaptiveWait ignoring(Class<? extends Throwable> type) {
+        mIgnored.add(type);
+        return this;
+    }
+
+    @Override
+    public <T> T until(Function<? super WebDriver, T> condition) {
+        return until(condition, mTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits for the condition using a timeout other than the default.
+     *
+     * @param condition The condition to wait for.
+     * @param timeout The maximum time to wait for this condition.
+     * @param unit The unit of {@code timeout}.
+     * @return The value returned by the condition once met.
+     * @throws TimeoutException If the condition is not met in time.
+     */
+    public <T> T until(Function<? super WebDriver, T> condition, long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        long interval = mMinIntervalNanos;
+        Throwable lastException = null;
+
+        while (true) {
+            mPolls++;
+            try {
+                T value = condition.apply(mDriver);
+                if (value != null && !Boolean.FALSE.equals(value)) {
+                    record(METRIC, System.nanoTime() - start);
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                if (!isIgnored(e)) {
+                    throw e;
+                }
+                lastException = e;
+            }
+
+            // Never sleep past the deadline so the last poll happens on time
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(interval, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException(e);
+            }
+            interval = Math.min(mMaxIntervalNanos, (long) (interval * BACKOFF));
+        }
+
+        long waited = System.nanoTime() - start;
+        mTimeouts++;
+        record(TIMEOUT_METRIC, waited);
+        throw new TimeoutException(String.format("Timed out after %1$d ms waiting for %2$s",
+                TimeUnit.NANOSECONDS.toMillis(waited), condition), lastException);
+    }
+
+    /**
+     * Returns the durations of all waits performed by this instance,
+     * including those that timed out.
+     */
+    public LatencyHistogram getWaitTimes() {
+        return mWaits.copy();
+    }
+
+    /**
+     * Returns the number of waits that timed out.
+     */
+    public int getTimeoutCount() {
+        return mTimeouts;
+    }
+
+    /**
+     * Returns the number of times any condition has been evaluated.
+     */
+    public long getPollCount() {
+        return mPolls;
+    }
+
+    private void record(String metric, long nanos) {
+        mWaits.record(nanos);
+        CommandMetrics.get().record(metric, nanos);
+    }
+
+    private boolean isIgnored(Throwable e) {
+        for (Class<? extends Throwable> type : mIgnored) {
+            if (type.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
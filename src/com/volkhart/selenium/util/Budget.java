@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A performance budget checked by {@link Verify#verifyDurationUnder} and
+ * {@link Verify#verifyPageLoadUnder}. The measured action is run a number of
+ * times after some unmeasured warm-up runs, and a percentile of the measured
+ * runs is compared to the budget: above the limit the check fails, above the
+ * warning threshold it warns, and otherwise it passes.
+ * <p>
+ * For example, to fail when the 90th percentile of ten runs exceeds two
+ * seconds and warn above one and a half:
+ *
+ * <pre>
+ * new Budget(2, TimeUnit.SECONDS).warnAbove(1500, TimeUnit.MILLISECONDS).warmUp(2).repeat(10)
+ *         .percentile(90);
+ * </pre>
+ *
+ * @author Marius Volkhart
+ */
+public class Budget {
+
+    private final long mLimitNanos;
+    private long mWarningNanos;
+    private int mWarmUp;
+    private int mRepeat = 1;
+    private double mPercentile = 50;
+
+    /**
+     * Creates a budget that measures a single run, without warm-up, and
+     * never warns.
+     *
+     * @param limit The duration above which the check fails.
+     */
+    public Budget(long limit, TimeUnit unit) {
+        mLimitNanos = unit.toNanos(limit);
+        mWarningNanos = mLimitNanos;
+    }
+
+    /**
+     * Warns when the measured duration is above this but within the limit.
+     */
+    public Budget warnAbove(long threshold, TimeUnit unit) {
+        mWarningNanos = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Sets the number of runs before measuring, which fill caches and let
+     * the JIT compile the code under test. Defaults to 0.
+     */
+    public Budget warmUp(int runs) {
+        Preconditions.checkArgument(runs >= 0, "Warm-up runs cannot be negative");
+        mWarmUp = runs;
+        return this;
+    }
+
+    /**
+     * Sets the number of measured runs. Defaults to 1.
+     */
+    public Budget repeat(int runs) {
+        Preconditions.checkArgument(runs > 0, "At least one run must be measured");
+        mRepeat = runs;
+        return this;
+    }
+
+    /**
+     * Sets the percentile of the measured runs that is compared to the
+     * budget. Defaults to 50, the median, which ignores occasional outliers.
+     * Use 100 to hold every run to the budget.
+     */
+    public Budget percentile(double percentile) {
+        Preconditions.checkArgument(percentile > 0 && percentile <= 100,
+                "The percentile must be in (0, 100]");
+        mPercentile = percentile;
+        return this;
+    }
+
+    long getLimit() {
+        return mLimitNanos;
+    }
+
+    long getWarning() {
+        return mWarningNanos;
+    }
+
+    int getWarmUp() {
+        return mWarmUp;
+    }
+
+    int getRepeat() {
+        return mRepeat;
+    }
+
+    /**
+     * Returns the budgeted percentile of the durations, using the nearest
+     * rank so that the result is always one of the measured durations.
+     * Sorts the array.
+     */
+    long aggregate(long[] durations) {
+        Arrays.sort(durations);
+        int rank = (int) Math.ceil(mPercentile / 100 * durations.length);
+        return durations[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Describes what {@link #aggregate(long[])} computes, e.g. "Median of 10
+     * runs".
+     */
+    String describeAggregate() {
+        if (mRepeat == 1) {
+            return "Single run";
+        }
+        String aggregate;
+        if (mPercentile == 50) {
+            aggregate = "Median";
+        } else if (mPercentile == 100) {
+            aggregate = "Slowest";
+        } else {
+            aggregate = formatPercentile(mPercentile) + " percentile";
+        }
+        return aggregate + " of " + mRepeat + " runs";
+    }
+
+    /**
+     * Formats a percentile as an ordinal, e.g. "1st", "22nd", "90th" or
+     * "99.9th".
+     */
+    static String formatPercentile(double percentile) {
+        if (percentile != Math.rint(percentile)) {
+            return Double.toString(percentile) + "th";
+        }
+        long whole = (long) percentile;
+        String suffix = "th";
+        if (whole % 100 < 11 || whole % 100 > 13) {
+            switch ((int) (whole % 10)) {
+                case 1:
+                    suffix = "st";
+                    break;
+                case 2:
+                    suffix = "nd";
+                    break;
+                case 3:
+                    suffix = "rd";
+                    break;
+            }
+        }
+        return whole + suffix;
+    }
+
+}
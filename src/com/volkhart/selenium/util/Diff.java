@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.base.Objects;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes compact, human readable differences between collections for
+ * {@link Verify}. Every comparison is linear in the size of its input: lists
+ * are compared by trimming their common prefix and suffix and counting the
+ * remaining elements in a hash map, rather than by comparing every element
+ * with every other one. Only the first {@value #MAX_ENTRIES} differences are
+ * described so that the report stays readable for large tables.
+ *
+ * @author Marius Volkhart
+ */
+final class Diff {
+
+    static final int MAX_ENTRIES = 20;
+
+    private final StringBuilder mEntries = new StringBuilder();
+    private int mCount;
+
+    private Diff() {
+    }
+
+    /**
+     * Returns the differences between two lists as an HTML fragment, or null
+     * if they are equal.
+     */
+    static String lists(List<?> expected, List<?> actual) {
+        Diff diff = new Diff();
+        diff.diffLists(expected, actual, "element");
+        return diff.toString("Expected " + expected.size() + " elements, actual "
+                + actual.size());
+    }
+
+    /**
+     * Returns the differences between two maps as an HTML fragment, or null if
+     * they are equal.
+     */
+    static String maps(Map<?, ?> expected, Map<?, ?> actual) {
+        Diff diff = new Diff();
+        for (Map.Entry<?, ?> entry : expected.entrySet()) {
+            Object key = entry.getKey();
+            if (!actual.containsKey(key)) {
+                diff.add("Missing key (" + key + ")");
+            } else if (!Objects.equal(entry.getValue(), actual.get(key))) {
+                diff.add("Key (" + key + "): expected (" + entry.getValue() + "), actual ("
+                        + actual.get(key) + ")");
+            }
+        }
+        for (Object key : actual.keySet()) {
+            if (!expected.containsKey(key)) {
+                diff.add("Unexpected key (" + key + ")");
+            }
+        }
+        return diff.toString("Expected " + expected.size() + " entries, actual "
+                + actual.size());
+    }
+
+    /**
+     * Returns the differences between two tables, given as lists of rows, as
+     * an HTML fragment, or null if they are equal. When both tables have the
+     * same number of rows they are compared cell by cell. Otherwise rows were
+     * added or removed, and the rows are matched by their content so that a
+     * single missing row is not reported as a difference in every row after
+     * it.
+     */
+    static String tables(List<? extends List<?>> expected, List<? extends List<?>> actual) {
+        Diff diff = new Diff();
+        if (expected.size() == actual.size()) {
+            for (int row = 0; row < expected.size(); row++) {
+                diff.diffRow(row, expected.get(row), actual.get(row));
+            }
+        } else {
+            diff.diffLists(expected, actual, "row");
+        }
+        return diff.toString("Expected " + expected.size() + " rows, actual " + actual.size());
+    }
+
+    private void diffRow(int row, List<?> expected, List<?> actual) {
+        if (expected.size() != actual.size()) {
+            add("Row " + row + ": expected " + expected.size() + " cells, actual "
+                    + actual.size() + " " + actual);
+            return;
+        }
+        for (int column = 0; column < expected.size(); column++) {
+            Object expectedCell = expected.get(column);
+            Object actualCell = actual.get(column);
+            if (!Objects.equal(expectedCell, actualCell)) {
+                add("Row " + row + ", column " + column + ": expected (" + expectedCell
+                        + "), actual (" + actualCell + ")");
+            }
+        }
+    }
+
+    private void diffLists(List<?> expected, List<?> actual, String noun) {
+        int start = 0;
+        int expectedEnd = expected.size();
+        int actualEnd = actual.size();
+        while (start < expectedEnd && start < actualEnd
+                && Objects.equal(expected.get(start), actual.get(start))) {
+            start++;
+        }
+        while (expectedEnd > start && actualEnd > start
+                && Objects.equal(expected.get(expectedEnd - 1), actual.get(actualEnd - 1))) {
+            expectedEnd--;
+            actualEnd--;
+        }
+        if (start == expectedEnd && start == actualEnd) {
+            return;
+        }
+
+        // Positive counts are missing from actual, negative ones unexpected
+        Map<Object, int[]> counts = new HashMap<Object, int[]>();
+        for (int i = start; i < expectedEnd; i++) {
+            count(counts, expected.get(i), 1);
+        }
+        for (int i = start; i < actualEnd; i++) {
+            count(counts, actual.get(i), -1);
+        }
+
+        boolean sameElements = true;
+        for (int i = start; i < expectedEnd; i++) {
+            int[] count = counts.get(expected.get(i));
+            if (count[0] > 0) {
+                count[0]--;
+                sameElements = false;
+                add("Missing " + noun + " (" + expected.get(i) + ") at index " + i);
+            }
+        }
+        for (int i = start; i < actualEnd; i++) {
+            int[] count = counts.get(actual.get(i));
+            if (count[0] < 0) {
+                count[0]++;
+                sameElements = false;
+                add("Unexpected " + noun + " (" + actual.get(i) + ") at index " + i);
+            }
+        }
+
+        if (sameElements) {
+            add("Same " + noun + "s in a different order. At index " + start + " expected ("
+                    + expected.get(start) + "), actual (" + actual.get(start) + ")");
+        }
+    }
+
+    private static void count(Map<Object, int[]> counts, Object element, int delta) {
+        int[] count = counts.get(element);
+        if (count == null) {
+            count = new int[1];
+            counts.put(element, count);
+        }
+        count[0] += delta;
+    }
+
+    private void add(String entry) {
+        if (mCount++ < MAX_ENTRIES) {
+            mEntries.append("<li>").append(entry).append("</li>");
+        }
+    }
+
+    private String toString(String summary) {
+        if (mCount == 0) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(summary).append(". ").append(mCount)
+                .append(mCount == 1 ? " difference" : " differences").append("<ul>")
+                .append(mEntries);
+        if (mCount > MAX_ENTRIES) {
+            result.append("<li>... and ").append(mCount - MAX_ENTRIES).append(" more</li>");
+        }
+        return result.append("</ul>").toString();
+    }
+
+}
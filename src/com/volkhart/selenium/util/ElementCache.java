@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.internal.Coordinates;
+import org.openqa.selenium.internal.Locatable;
+import org.openqa.selenium.internal.WrapsDriver;
+import org.openqa.selenium.internal.WrapsElement;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the result of {@code findElement} per driver and locator so that
+ * page objects looking up the same element over and over only pay for the
+ * first lookup.
+ * <p>
+ * The elements handed out are never validated up front, since any check costs
+ * a round-trip just like the lookup it is meant to save. Instead, a cached
+ * element that turns out to be stale, for example because the page was
+ * reloaded or navigated away from, is looked up again and the call is retried
+ * once. Pages that replace content without making the old elements stale can
+ * call {@link #invalidate()}.
+ * <p>
+ * Cached elements refer to their driver, so a cache lives until
+ * {@link #forget(WebDriver)} is called for its driver. Tests run by the
+ * framework do this when they quit their session.
+ *
+ * @author Marius Volkhart
+ */
+public class ElementCache {
+
+    // Weak keys so caches of drivers that never held an element go away
+    // together with their drivers
+    private static final Map<WebDriver, ElementCache> sCaches = new MapMaker().weakKeys()
+            .makeMap();
+
+    private final WeakReference<WebDriver> mDriver;
+    private final Map<By, CachedElement> mElements = new HashMap<By, CachedElement>();
+    private int mHits;
+    private int mMisses;
+    private int mRefreshes;
+
+    private ElementCache(WebDriver driver) {
+        mDriver = new WeakReference<WebDriver>(driver);
+    }
+
+    /**
+     * Returns the cache of the given driver, creating it if needed.
+     */
+    public static ElementCache get(WebDriver driver) {
+        ElementCache cache = sCaches.get(driver);
+        if (cache == null) {
+            synchronized (sCaches) {
+                cache = sCaches.get(driver);
+                if (cache == null) {
+                    cache = new ElementCache(driver);
+                    sCaches.put(driver, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cache of the given driver, for example once its session has
+     * been quit.
+     */
+    public static void forget(WebDriver driver) {
+        sCaches.remove(driver);
+    }
+
+    /**
+     * Returns the element for the locator, looking it up only if it is not
+     * cached yet.
+     *
+     * @param locator The method by which the WebElement is identified.
+     * @return An element that transparently re-resolves itself when stale.
+     * @throws org.openqa.selenium.NoSuchElementException If the element is not
+     *             cached and cannot be found.
+     */
+    public synchronized WebElement findElement(By locator) {
+        CachedElement element = mElements.get(Preconditions.checkNotNull(locator));
+        if (element == null) {
+            mMisses++;
+            element = new CachedElement(locator, driver().findElement(locator));
+            mElements.put(locator, element);
+        } else {
+            mHits++;
+        }
+        return element;
+    }
+
+    /**
+     * Forgets all cached elements.
+     */
+    public synchronized void invalidate() {
+        mElements.clear();
+    }
+
+    /**
+     * Forgets the element cached for the locator.
+     */
+    public synchronized void invalidate(By locator) {
+        mElements.remove(locator);
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns how many times a cached element was found to be stale and
+     * looked up again.
+     */
+    public synchronized int getRefreshCount() {
+        return mRefreshes;
+    }
+
+    private synchronized WebElement resolve(By locator) {
+        mRefreshes++;
+        return driver().findElement(locator);
+    }
+
+    private WebDriver driver() {
+        WebDriver driver = mDriver.get();
+        if (driver == null) {
+            throw new WebDriverException("The driver of this cache is gone");
+        }
+        return driver;
+    }
+
+    /**
+     * A WebElement that looks itself up again when it becomes stale.
+     */
+    private class CachedElement implements WebElement, Locatable, WrapsElement, WrapsDriver {
+
+        private final By mLocator;
+        private volatile WebElement mElement;
+
+        private CachedElement(By locator, WebElement element) {
+            mLocator = locator;
+            mElement = element;
+        }
+
+        private WebElement refresh() {
+            mElement = resolve(mLocator);
+            return mElement;
+        }
+
+        @Override
+        public void click() {
+            try {
+                mElement.click();
+            } catch (StaleElementReferenceException e) {
+                refresh().click();
+            }
+        }
+
+        @Override
+        public void submit() {
+            try {
+                mElement.submit();
+            } catch (StaleElementReferenceException e) {
+                refresh().submit();
+            }
+        }
+
+        @Override
+        public void sendKeys(CharSequence... keysToSend) {
+            try {
+                mElement.sendKeys(keysToSend);
+            } catch (StaleElementReferenceException e) {
+                refresh().sendKeys(keysToSend);
+            }
+        }
+
+        @Override
+        public void clear() {
+            try {
+                mElement.clear();
+            } catch (StaleElementReferenceException e) {
+                refresh().clear();
+            }
+        }
+
+        @Override
+        public String getTagName() {
+            try {
+                return mElement.getTagName();
+            } catch (StaleElementReferenceException e) {
+                return refresh().getTagName();
+            }
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            try {
+                return mElement.getAttribute(name);
+            } catch (StaleElementReferenceException e) {
+                return refresh().getAttribute(name);
+            }
+        }
+
+        @Override
+        public boolean isSelected() {
+            try {
+                return mElement.isSelected();
+            } catch (StaleElementReferenceException e) {
+                return refresh().isSelected();
+            }
+        }
+
+        @Override
+        public boolean isEnabled() {
+            try {
+                return mElement.isEnabled();
+            } catch (StaleElementReferenceException e) {
+                return refresh().isEnabled();
+            }
+        }
+
+        @Override
+        public String getText() {
+            try {
+                return mElement.getText();
+            } catch (StaleElementReferenceException e) {
+                return refresh().getText();
+            }
+        }
+
+        @Override
+        public List<WebElement> findElements(By by) {
+            try {
+                return mElement.findElements(by);
+            } catch (StaleElementReferenceException e) {
+                return refresh().findElements(by);
+            }
+        }
+
+        @Override
+        public WebElement findElement(By by) {
+            try {
+                return mElement.findElement(by);
+            } catch (StaleElementReferenceException e) {
+                return refresh().findElement(by);
+            }
+        }
+
+        @Override
+        public boolean isDisplayed() {
+            try {
+                return mElement.isDisplayed();
+            } catch (StaleElementReferenceException e) {
+                return refresh().isDisplayed();
+            }
+        }
+
+        @Override
+        public Point getLocation() {
+            try {
+                return mElement.getLocation();
+            } catch (StaleElementReferenceException e) {
+                return refresh().getLocation();
+            }
+        }
+
+        @Override
+        public Dimension getSize() {
+            try {
+                return mElement.getSize();
+            } catch (StaleElementReferenceException e) {
+                return refresh().getSize();
+            }
+        }
+
+        @Override
+        public String getCssValue(String propertyName) {
+            try {
+                return mElement.getCssValue(propertyName);
+            } catch (StaleElementReferenceException e) {
+                return refresh().getCssValue(propertyName);
+            }
+        }
+
+        @Override
+        public Point getLocationOnScreenOnceScrolledIntoView() {
+            try {
+                return ((Locatable) mElement).getLocationOnScreenOnceScrolledIntoView();
+            } catch (StaleElementReferenceException e) {
+                return ((Locatable) refresh()).getLocationOnScreenOnceScrolledIntoView();
+            }
+        }
+
+        @Override
+        public Coordinates getCoordinates() {
+            // Coordinates are resolved lazily by the driver, so staleness
+            // surfaces when they are used rather than here
+            return ((Locatable) mElement).getCoordinates();
+        }
+
+        @Override
+        public WebElement getWrappedElement() {
+            return mElement;
+        }
+
+        @Override
+        public WebDriver getWrappedDriver() {
+            return mDriver.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Cached element (" + mLocator + ")";
+        }
+    }
+
+}
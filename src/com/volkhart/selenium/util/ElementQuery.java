@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Looks up the state of many elements in a single round-trip to the browser.
+ * Checking N elements through WebDriver costs at least 2N remote calls (find,
+ * then isDisplayed or getText); an ElementQuery evaluates all of them in one
+ * {@code executeScript} call.
+ * <p>
+ * Locators created by the {@link By} factory methods are translated into
+ * their DOM equivalents. If any locator cannot be translated, or the driver
+ * cannot execute JavaScript, the query falls back to regular WebDriver calls
+ * so the results are always available.
+ * <p>
+ * Visibility is evaluated in the browser as "has a layout box and is not
+ * hidden by {@code visibility} or {@code display}", which matches
+ * {@link WebElement#isDisplayed()} for the common cases but not for every
+ * edge case such as elements clipped by overflow.
+ *
+ * @author Marius Volkhart
+ */
+public class ElementQuery {
+
+    // Each locator is a [type, value] pair. Each result is
+    // [present, visible, text, attribute...] with text and attributes only
+    // filled in when requested.
+    private static final String SCRIPT = "var locators = arguments[0], wantText = arguments[1],"
+            + " attributes = arguments[2], results = [];\n"
+            + "function find(type, value) {\n"
+            + "  switch (type) {\n"
+            + "  case 'id': return document.getElementById(value);\n"
+            + "  case 'selector': return document.querySelector(value);\n"
+            + "  case 'name': return document.getElementsByName(value)[0];\n"
+            + "  case 'className': return document.getElementsByClassName(value)[0];\n"
+            + "  case 'tagName': return document.getElementsByTagName(value)[0];\n"
+            + "  case 'xpath': return document.evaluate(value, document, null,"
+            + " XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;\n"
+            + "  case 'linkText': case 'partialLinkText':\n"
+            + "    var links = document.getElementsByTagName('a');\n"
+            + "    for (var i = 0; i < links.length; i++) {\n"
+            + "      var text = (links[i].textContent || '').replace(/^\\s+|\\s+$/g, '');\n"
+            + "      if (type == 'linkText' ? text == value : text.indexOf(value) >= 0) return links[i];\n"
+            + "    }\n"
+            + "  }\n"
+            + "  return null;\n"
+            + "}\n"
+            + "function visible(e) {\n"
+            + "  if (!(e.offsetWidth || e.offsetHeight || e.getClientRects().length)) return false;\n"
+            + "  for (var n = e; n && n.nodeType == 1; n = n.parentNode) {\n"
+            + "    var style = window.getComputedStyle(n, null);\n"
+            + "    if (style.display == 'none' || (n == e && style.visibility == 'hidden')) return false;\n"
+            + "  }\n"
+            + "  return true;\n"
+            + "}\n"
+            + "for (var i = 0; i < locators.length; i++) {\n"
+            + "  var e = null;\n"
+            + "  try { e = find(locators[i][0], locators[i][1]); } catch (ignored) {}\n"
+            + "  var result = [e != null, e != null && visible(e),"
+            + " e != null && wantText ? (e.innerText || e.textContent || '') : null];\n"
+            + "  for (var j = 0; j < attributes.length; j++) {\n"
+            + "    result.push(e != null ? e.getAttribute(attributes[j]) : null);\n"
+            + "  }\n"
+            + "  results.push(result);\n"
+            + "}\n"
+            + "return results;";
+
+    // The types SCRIPT can look up, as the By factory methods describe them.
+    // By.cssSelector() describes itself as "By.selector".
+    private static final Set<String> SCRIPT_TYPES = ImmutableSet.of("id", "selector", "name",
+            "className", "tagName", "xpath", "linkText", "partialLinkText");
+
+    private static final String TABLE_SCRIPT = "var rows = arguments[0].getElementsByTagName('tr'),"
+            + " result = [];\n"
+            + "for (var i = 0; i < rows.length; i++) {\n"
+            + "  var cells = rows[i].cells, row = [];\n"
+            + "  for (var j = 0; j < cells.length; j++) {\n"
+            + "    row.push((cells[j].innerText || cells[j].textContent || '')"
+            + ".replace(/^\\s+|\\s+$/g, ''));\n"
+            + "  }\n"
+            + "  result.push(row);\n"
+            + "}\n"
+            + "return result;";
+
+    private final List<By> mLocators = new ArrayList<By>();
+    private final List<String> mAttributes = new ArrayList<String>();
+    private boolean mText;
+
+    public ElementQuery(By... locators) {
+        for (By locator : locators) {
+            add(locator);
+        }
+    }
+
+    /**
+     * Adds an element to the query. Only the first element matching the
+     * locator is considered.
+     */
+    public ElementQuery add(By locator) {
+        mLocators.add(Preconditions.checkNotNull(locator));
+        return this;
+    }
+
+    /**
+     * Also retrieves the text of every element.
+     */
+    public ElementQuery withText() {
+        mText = true;
+        return this;
+    }
+
+    /**
+     * Also retrieves the given attribute of every element.
+     */
+    public ElementQuery withAttribute(String name) {
+        mAttributes.add(Preconditions.checkNotNull(name));
+        return this;
+    }
+
+    /**
+     * Evaluates the query against the page currently loaded in the driver.
+     *
+     * @param driver The WebDriver to query.
+     * @return The state of every element, in the order they were added.
+     */
+    public Results execute(WebDriver driver) {
+        List<List<String>> locators = toScriptLocators();
+        if (locators != null && driver instanceof JavascriptExecutor) {
+            Object raw = ((JavascriptExecutor) driver).executeScript(SCRIPT, locators,
+                    Boolean.valueOf(mText), mAttributes);
+            if (raw instanceof List<?>) {
+                return fromScript((List<?>) raw);
+            }
+        }
+        return fromWebDriver(driver);
+    }
+
+    /**
+     * Reads the text of every cell of an HTML table in a single round-trip,
+     * for comparing it with {@link Verify#verifyTableEquals}. Reading a large
+     * table cell by cell through WebDriver costs two remote calls per cell.
+     *
+     * @param driver The WebDriver the table belongs to.
+     * @param table The {@code table} element, or any element whose
+     *            {@code tr} descendants are the rows.
+     * @return The text of each row's {@code td} and {@code th} cells.
+     */
+    public static List<List<String>> readTable(WebDriver driver, WebElement table) {
+        if (driver instanceof JavascriptExecutor) {
+            Object raw = ((JavascriptExecutor) driver).executeScript(TABLE_SCRIPT, table);
+            if (raw instanceof List<?>) {
+                List<List<String>> rows = new ArrayList<List<String>>();
+                for (Object row : (List<?>) raw) {
+                    List<String> cells = new ArrayList<String>();
+                    for (Object cell : (List<?>) row) {
+                        cells.add(cell == null ? null : cell.toString());
+                    }
+                    rows.add(cells);
+                }
+                return rows;
+            }
+        }
+
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (WebElement row : table.findElements(By.tagName("tr"))) {
+            List<String> cells = new ArrayList<String>();
+            for (WebElement cell : row.findElements(By.xpath("./td|./th"))) {
+                cells.add(cell.getText());
+            }
+            rows.add(cells);
+        }
+        return rows;
+    }
+
+    /**
+     * Translates the locators into [type, value] pairs, or returns null if
+     * any of them is not one of the standard locators. Other locators, such
+     * as chained ones, may describe themselves in the same form, so the type
+     * has to be one the script knows.
+     */
+    private List<List<String>> toScriptLocators() {
+        List<List<String>> locators = new ArrayList<List<String>>(mLocators.size());
+        for (By locator : mLocators) {
+            // The standard locators describe themselves as "By.<type>: <value>"
+            String description = locator.toString();
+            int separator = description.indexOf(": ");
+            if (!description.startsWith("By.") || separator < 0) {
+                return null;
+            }
+            String type = description.substring(3, separator);
+            if (!SCRIPT_TYPES.contains(type)) {
+                return null;
+            }
+            List<String> pair = new ArrayList<String>(2);
+            pair.add(type);
+            pair.add(description.substring(separator + 2));
+            locators.add(pair);
+        }
+        return locators;
+    }
+
+    private Results fromScript(List<?> raw) {
+        Results results = new Results(mLocators.size(), mAttributes);
+        for (int i = 0, max = Math.min(raw.size(), mLocators.size()); i < max; i++) {
+            List<?> result = (List<?>) raw.get(i);
+            results.mPresent[i] = Boolean.TRUE.equals(result.get(0));
+            results.mVisible[i] = Boolean.TRUE.equals(result.get(1));
+            results.mText[i] = (String) result.get(2);
+            for (int j = 0; j < mAttributes.size(); j++) {
+                Object value = result.get(3 + j);
+                results.mValues[i][j] = value == null ? null : value.toString();
+            }
+        }
+        return results;
+    }
+
+    private Results fromWebDriver(WebDriver driver) {
+        Results results = new Results(mLocators.size(), mAttributes);
+        for (int i = 0, max = mLocators.size(); i < max; i++) {
+            List<WebElement> found = driver.findElements(mLocators.get(i));
+            if (found.isEmpty()) {
+                continue;
+            }
+            WebElement element = found.get(0);
+            results.mPresent[i] = true;
+            results.mVisible[i] = element.isDisplayed();
+            if (mText) {
+                results.mText[i] = element.getText();
+            }
+            for (int j = 0; j < mAttributes.size(); j++) {
+                results.mValues[i][j] = element.getAttribute(mAttributes.get(j));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The state of the queried elements, indexed in the order the locators
+     * were added.
+     */
+    public static class Results {
+
+        private final List<String> mAttributes;
+        private final boolean[] mPresent;
+        private final boolean[] mVisible;
+        private final String[] mText;
+        private final String[][] mValues;
+
+        private Results(int size, List<String> attributes) {
+            mAttributes = new ArrayList<String>(attributes);
+            mPresent = new boolean[size];
+            mVisible = new boolean[size];
+            mText = new String[size];
+            mValues = new String[size][attributes.size()];
+        }
+
+        public int size() {
+            return mPresent.length;
+        }
+
+        public boolean isPresent(int index) {
+            return mPresent[index];
+        }
+
+        public boolean isVisible(int index) {
+            return mVisible[index];
+        }
+
+        /**
+         * Returns the text of the element, or null if it is not present or
+         * the text was not requested.
+         */
+        public String getText(int index) {
+            return mText[index];
+        }
+
+        /**
+         * Returns the value of a requested attribute, or null if the element
+         * is not present or does not have the attribute.
+         */
+        public String getAttribute(int index, String name) {
+            int attribute = mAttributes.indexOf(name);
+            Preconditions.checkArgument(attribute >= 0, "Attribute %s was not queried", name);
+            return mValues[index][attribute];
+        }
+
+        public boolean allVisible() {
+            return countVisible() == mVisible.length;
+        }
+
+        public int countVisible() {
+            int count = 0;
+            for (boolean visible : mVisible) {
+                if (visible) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+}
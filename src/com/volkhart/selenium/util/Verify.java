@@ -17,13 +17,31 @@
 package com.volkhart.selenium.util;
 
 import com.volkhart.selenium.report.Event;
+import com.volkhart.selenium.report.PageTiming;
 import com.volkhart.selenium.report.Reporter;
 
+import org.openqa.selenium.WebDriver;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Marius Volkhart
  */
 public class Verify {
 
+    /**
+     * Starts a batch of checks that are reported together as a single event.
+     * Use this instead of the individual verify methods when checking many
+     * values at once, such as every cell of a table.
+     * 
+     * @param title The title of the event the batch is reported as.
+     */
+    public static Batch batch(String title) {
+        return new Batch(title);
+    }
+
     public static boolean verifyEquals(boolean expected, boolean actual) {
         return verifyEquals("Verify", "Expected (" + expected + "), actual (" + actual + ")",
                 expected, actual);
@@ -136,23 +154,152 @@ public class Verify {
         }
     }
 
-    // public static boolean verifyEquals(String title, String message, List<?>
-    // obj1, List<?> obj2) {
-    // Reporter reporter = Reporter.get();
-    // if (obj1 == null && obj2 == null) {
-    // // Pass
-    // } else if ((obj1 != null && obj2 == null) || (obj1 == null && obj2 !=
-    // null)) {
-    // // Fail
-    // } else {
-    // if (obj1.size() != obj2.size()) {
-    // reporter.add(new Event(title, "obj1 has size (" + obj1.size()
-    // + ") and obj2 has size (" + obj2.size() + ").", Event.Status.FAIL));
-    // }
-    // }
-    //
-    // return false;
-    // }
+    /**
+     * Verifies that two lists contain equal elements in the same order. On
+     * failure the event lists the missing and unexpected elements.
+     */
+    public static boolean verifyListEquals(String title, List<?> expected, List<?> actual) {
+        if (expected == null || actual == null) {
+            return verifyEquals(title, expected, actual);
+        }
+        return report(title, Diff.lists(expected, actual), expected.size() + " elements");
+    }
+
+    /**
+     * Verifies that two maps contain equal entries. On failure the event lists
+     * the missing, unexpected and changed keys.
+     */
+    public static boolean verifyMapEquals(String title, Map<?, ?> expected, Map<?, ?> actual) {
+        if (expected == null || actual == null) {
+            return verifyEquals(title, expected, actual);
+        }
+        return report(title, Diff.maps(expected, actual), expected.size() + " entries");
+    }
+
+    /**
+     * Verifies that two tables, given as lists of rows, contain equal cells.
+     * This is meant for comparing grids read from a page with expected data,
+     * for example from {@link com.volkhart.selenium.data.MSAccess#getTable}.
+     * On failure the event lists the cells that differ, or the rows that are
+     * missing or unexpected if the number of rows differs.
+     */
+    public static boolean verifyTableEquals(String title, List<? extends List<?>> expected,
+            List<? extends List<?>> actual) {
+        if (expected == null || actual == null) {
+            return verifyEquals(title, expected, actual);
+        }
+        return report(title, Diff.tables(expected, actual), expected.size() + " rows");
+    }
+
+    private static boolean report(String title, String diff, String size) {
+        if (diff == null) {
+            Reporter.get().add(new Event(title, "All " + size + " are equal", Event.Status.PASS));
+            return true;
+        }
+        Reporter.get().add(new Event(title, diff, Event.Status.FAIL));
+        return false;
+    }
+
+    /**
+     * Verifies that an action finishes within a time budget. The action is
+     * run once and passes when it takes at most the budget.
+     * 
+     * @return False if the action took longer than the budget.
+     */
+    public static boolean verifyDurationUnder(String title, long budget, TimeUnit unit,
+            Runnable action) {
+        return verifyDurationUnder(title, new Budget(budget, unit), action);
+    }
+
+    /**
+     * Verifies that an action finishes within a performance budget. The
+     * action runs the warm-up runs of the budget first, which are not
+     * measured, and then its measured runs. Exceptions thrown by the action
+     * are not caught.
+     * 
+     * @return False if the budget was exceeded. A warning returns true.
+     */
+    public static boolean verifyDurationUnder(String title, Budget budget, Runnable action) {
+        for (int i = 0; i < budget.getWarmUp(); i++) {
+            action.run();
+        }
+        long[] durations = new long[budget.getRepeat()];
+        for (int i = 0; i < durations.length; i++) {
+            long start = System.nanoTime();
+            action.run();
+            durations[i] = System.nanoTime() - start;
+        }
+        return report(title, budget, durations, "");
+    }
+
+    /**
+     * Verifies that a page loads within a performance budget by navigating
+     * to it for every warm-up and measured run of the budget. The load time
+     * is taken from the browser's Navigation Timing, from the start of the
+     * navigation until the load event finished. Browsers without it are
+     * measured by how long {@link WebDriver#get(String)} took instead.
+     * 
+     * @return False if the budget was exceeded. A warning returns true.
+     */
+    public static boolean verifyPageLoadUnder(String title, Budget budget, WebDriver driver,
+            String url) {
+        for (int i = 0; i < budget.getWarmUp(); i++) {
+            driver.get(url);
+        }
+        long[] durations = new long[budget.getRepeat()];
+        boolean navigationTiming = true;
+        for (int i = 0; i < durations.length; i++) {
+            long start = System.nanoTime();
+            driver.get(url);
+            long elapsed = System.nanoTime() - start;
+
+            // Falls back to the time WebDriver took
+            PageTiming page = PageTiming.capture(driver, 0, 0);
+            if (page != null) {
+                durations[i] = TimeUnit.MILLISECONDS.toNanos(page.getTotal());
+            } else {
+                durations[i] = elapsed;
+                navigationTiming = false;
+            }
+        }
+        return report(title, budget, durations, navigationTiming ? ""
+                : " Measured by WebDriver, as the browser has no Navigation Timing.");
+    }
+
+    private static boolean report(String title, Budget budget, long[] durations, String note) {
+        long measured = budget.aggregate(durations);
+        Event.Status status;
+        if (measured > budget.getLimit()) {
+            status = Event.Status.FAIL;
+        } else if (measured > budget.getWarning()) {
+            status = Event.Status.WARNING;
+        } else {
+            status = Event.Status.PASS;
+        }
+
+        StringBuilder message = new StringBuilder(budget.describeAggregate());
+        if (budget.getWarmUp() > 0) {
+            message.append(" after ").append(budget.getWarmUp())
+                    .append(budget.getWarmUp() == 1 ? " warm-up run" : " warm-up runs");
+        }
+        message.append(": ").append(formatMillis(measured)).append(". Budget ")
+                .append(formatMillis(budget.getLimit()));
+        if (budget.getWarning() < budget.getLimit()) {
+            message.append(", warning above ").append(formatMillis(budget.getWarning()));
+        }
+        message.append('.');
+        if (durations.length > 1) {
+            // Sorted by aggregate
+            message.append(" Runs took ").append(formatMillis(durations[0])).append(" to ")
+                    .append(formatMillis(durations[durations.length - 1])).append('.');
+        }
+        Reporter.get().add(new Event(title, message.append(note).toString(), status));
+        return status != Event.Status.FAIL;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
 
     public static boolean verifyFalse(boolean condition) {
         return verifyFalse("Expected <b>false</b> and found (" + condition + ").", condition);
@@ -246,4 +393,151 @@ public class Verify {
         pass("Pass", message);
     }
 
+    /**
+     * Accumulates the outcome of many checks and reports them as one event
+     * when {@link #report()} is called. Passing checks only increment a
+     * counter, so their messages are never built; only failures are described
+     * in the report. A batch with failures is reported as a single FAIL event
+     * with a single screenshot.
+     * <p>
+     * A Batch is not thread safe and must be reported on the thread whose
+     * test it belongs to.
+     */
+    public static class Batch {
+
+        private final String mTitle;
+        private final StringBuilder mFailures = new StringBuilder();
+        private int mCheckCount;
+        private int mFailureCount;
+        private boolean mReported;
+
+        private Batch(String title) {
+            mTitle = title;
+        }
+
+        public Batch verifyEquals(String label, boolean expected, boolean actual) {
+            if (failed(expected == actual)) {
+                fail(label, expected, actual);
+            }
+            return this;
+        }
+
+        public Batch verifyEquals(String label, char expected, char actual) {
+            if (failed(expected == actual)) {
+                fail(label, expected, actual);
+            }
+            return this;
+        }
+
+        public Batch verifyEquals(String label, int expected, int actual) {
+            if (failed(expected == actual)) {
+                fail(label, expected, actual);
+            }
+            return this;
+        }
+
+        public Batch verifyEquals(String label, long expected, long actual) {
+            if (failed(expected == actual)) {
+                fail(label, expected, actual);
+            }
+            return this;
+        }
+
+        public Batch verifyEquals(String label, double expected, double actual, double delta) {
+            if (failed(expected == actual || Math.abs(expected - actual) <= delta)) {
+                fail(label, expected, actual);
+            }
+            return this;
+        }
+
+        public Batch verifyEquals(String label, Object expected, Object actual) {
+            if (failed(expected == null ? actual == null : expected.equals(actual))) {
+                fail(label, expected == null ? "<b>null</b>" : expected,
+                        actual == null ? "<b>null</b>" : actual);
+            }
+            return this;
+        }
+
+        public Batch verifyTrue(String label, boolean condition) {
+            if (failed(condition)) {
+                fail(label, true, false);
+            }
+            return this;
+        }
+
+        public Batch verifyFalse(String label, boolean condition) {
+            if (failed(!condition)) {
+                fail(label, false, true);
+            }
+            return this;
+        }
+
+        public Batch verifyNotNull(String label, Object obj) {
+            if (failed(obj != null)) {
+                appendFailure(label, "Expected a value and found <b>null</b>");
+            }
+            return this;
+        }
+
+        /**
+         * Returns the number of checks made so far.
+         */
+        public int getCheckCount() {
+            return mCheckCount;
+        }
+
+        /**
+         * Returns the number of checks that failed so far.
+         */
+        public int getFailureCount() {
+            return mFailureCount;
+        }
+
+        /**
+         * Reports the batch as a single event: PASS if every check passed,
+         * otherwise FAIL listing only the checks that failed. A batch can only
+         * be reported once.
+         * 
+         * @return True if every check passed.
+         */
+        public boolean report() {
+            if (mReported) {
+                throw new IllegalStateException("Batch " + mTitle + " was already reported");
+            }
+            mReported = true;
+
+            if (mFailureCount == 0) {
+                Reporter.get().add(new Event(mTitle, "All " + mCheckCount + " checks passed",
+                        Event.Status.PASS));
+                return true;
+            }
+            Reporter.get().add(new Event(mTitle, mFailureCount + " of " + mCheckCount
+                    + " checks failed<ul>" + mFailures + "</ul>", Event.Status.FAIL));
+            return false;
+        }
+
+        /**
+         * Counts a check and returns true if it failed.
+         */
+        private boolean failed(boolean passed) {
+            mCheckCount++;
+            if (!passed) {
+                mFailureCount++;
+            }
+            return !passed;
+        }
+
+        private void fail(String label, Object expected, Object actual) {
+            appendFailure(label, "Expected (" + expected + "), actual (" + actual + ")");
+        }
+
+        private void appendFailure(String label, String message) {
+            mFailures.append("<li>");
+            if (label != null) {
+                mFailures.append(label).append(": ");
+            }
+            mFailures.append(message).append("</li>");
+        }
+    }
+
 }
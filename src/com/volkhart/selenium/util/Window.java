@@ -22,8 +22,8 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
-import java.util.Set;
 
 /**
  * Provides window interactions on existing WebDriver objects.
@@ -34,10 +34,17 @@ public class Window {
 	/**
 	 * Maximizes the browser window.
 	 * 
+	 * On hosts without a display the size of the local screen is unknown, so
+	 * the browser is asked to maximize itself instead.
+	 * 
 	 * @param driver
 	 *            WebDriver instance being maximized
 	 */
 	public static void maximize(WebDriver driver) {
+		if (GraphicsEnvironment.isHeadless()) {
+			driver.manage().window().maximize();
+			return;
+		}
 		Toolkit t = Toolkit.getDefaultToolkit();
 		java.awt.Dimension screenSize = t.getScreenSize();
 		Dimension screenRes = new Dimension(screenSize.width, screenSize.height);
@@ -47,20 +54,19 @@ public class Window {
 	/**
 	 * Switches the WebDriver pointer to the specified window
 	 * 
-	 * Uses {@code String.contains()} to identify windows.
+	 * Uses {@code String.contains()} to identify windows. Titles are cached
+	 * per driver so that known windows are tried first.
 	 * 
 	 * @param driver
 	 *            WebDriver being redirected
 	 * @param partialTitle
 	 *            A portion of the title of the window.
+	 * @return true if a matching window was found. Otherwise the driver stays
+	 *         on its current window.
+	 * @see WindowRegistry
 	 */
-	public static void switchTo(WebDriver driver, String partialTitle) {
-		Set<String> windows = driver.getWindowHandles();
-		for (String s : windows) {
-			driver.switchTo().window(s);
-			if (driver.getTitle().toLowerCase().contains(partialTitle.toLowerCase()))
-				break;
-		}
+	public static boolean switchTo(WebDriver driver, String partialTitle) {
+		return WindowRegistry.get(driver).switchToTitle(partialTitle);
 	}
 
 	/**
@@ -101,4 +107,26 @@ public class Window {
 		};
 	}
 
+	/**
+	 * Provides a way of doing dynamic waits on several elements at once. All
+	 * elements are checked in a single round-trip per poll.
+	 * 
+	 * @param locators
+	 *            the methods by which the WebElements are identified
+	 * @return The state of the elements once all of them are visible
+	 * @see ElementQuery
+	 */
+	public static ExpectedCondition<ElementQuery.Results> areVisible(final By... locators) {
+		final ElementQuery query = new ElementQuery(locators);
+		return new ExpectedCondition<ElementQuery.Results>() {
+			public ElementQuery.Results apply(WebDriver sDriver) {
+				ElementQuery.Results results = query.execute(sDriver);
+				if (results.allVisible()) {
+					return results;
+				}
+				return null;
+			}
+		};
+	}
+
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 Marius Volkhart
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.volkhart.selenium.util;
+
+import com.google.common.collect.MapMaker;
+
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.WebDriver;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the title and URL of every window of a WebDriver so that
+ * switching windows does not have to visit each one. The remembered values
+ * are only used to pick which window to try first; a window is always
+ * re-checked after switching to it, so pages that navigate or change their
+ * title are still found.
+ * <p>
+ * A switch costs two calls to find the current and all open windows plus
+ * two calls per window visited. When the cache is right, only the matching
+ * window is visited, and only windows opened since the last switch are read
+ * for the first time.
+ *
+ * @author Marius Volkhart
+ */
+public class WindowRegistry {
+
+    private enum Attribute {
+        TITLE, URL
+    }
+
+    // Weak keys so registries go away together with their drivers. A
+    // registry must not hold its driver strongly, or the key never would.
+    private static final Map<WebDriver, WindowRegistry> sRegistries = new MapMaker().weakKeys()
+            .makeMap();
+
+    private final WeakReference<WebDriver> mDriver;
+    private final Map<String, String[]> mWindows = new LinkedHashMap<String, String[]>();
+
+    private WindowRegistry(WebDriver driver) {
+        mDriver = new WeakReference<WebDriver>(driver);
+    }
+
+    /**
+     * Returns the registry of the given driver, creating it if needed.
+     */
+    public static WindowRegistry get(WebDriver driver) {
+        WindowRegistry registry = sRegistries.get(driver);
+        if (registry == null) {
+            synchronized (sRegistries) {
+                registry = sRegistries.get(driver);
+                if (registry == null) {
+                    registry = new WindowRegistry(driver);
+                    sRegistries.put(driver, registry);
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Drops the registry of the given driver, for example once its session
+     * has been quit.
+     */
+    public static void forget(WebDriver driver) {
+        sRegistries.remove(driver);
+    }
+
+    /**
+     * Switches to the first window whose title contains the text, ignoring
+     * case.
+     *
+     * @param partialTitle A portion of the title of the window.
+     * @return true if a matching window was found. Otherwise the driver is
+     *         left on the window it was on.
+     */
+    public synchronized boolean switchToTitle(String partialTitle) {
+        return switchTo(Attribute.TITLE, partialTitle.toLowerCase());
+    }
+
+    /**
+     * Switches to the first window whose URL contains the text, ignoring
+     * case.
+     *
+     * @param partialUrl A portion of the URL of the window.
+     * @return true if a matching window was found. Otherwise the driver is
+     *         left on the window it was on.
+     */
+    public synchronized boolean switchToUrl(String partialUrl) {
+        return switchTo(Attribute.URL, partialUrl.toLowerCase());
+    }
+
+    /**
+     * Forgets everything known about the windows of this driver.
+     */
+    public synchronized void clear() {
+        mWindows.clear();
+    }
+
+    private boolean switchTo(Attribute attribute, String text) {
+        WebDriver driver = mDriver.get();
+        if (driver == null) {
+            // Nobody can be switching windows of a driver that is gone
+            return false;
+        }
+        String original = currentHandle(driver);
+        String current = original;
+        Set<String> handles = driver.getWindowHandles();
+        mWindows.keySet().retainAll(handles);
+
+        // Visit windows whose cached value matches first, then windows never
+        // seen before and finally the remaining known windows in case their
+        // value changed since they were cached.
+        List<String> order = new ArrayList<String>(handles.size());
+        for (Map.Entry<String, String[]> entry : mWindows.entrySet()) {
+            if (matches(entry.getValue()[attribute.ordinal()], text)) {
+                order.add(entry.getKey());
+            }
+        }
+        for (String handle : handles) {
+            if (!mWindows.containsKey(handle)) {
+                order.add(handle);
+            }
+        }
+        Set<String> queued = new HashSet<String>(order);
+        for (String handle : mWindows.keySet()) {
+            if (!queued.contains(handle)) {
+                order.add(handle);
+            }
+        }
+
+        for (String handle : order) {
+            try {
+                if (!handle.equals(current)) {
+                    driver.switchTo().window(handle);
+                    current = handle;
+                }
+            } catch (NoSuchWindowException e) {
+                // Closed since the handles were listed
+                mWindows.remove(handle);
+                continue;
+            }
+            if (matches(read(driver, handle, attribute), text)) {
+                return true;
+            }
+        }
+
+        if (original != null && !original.equals(current) && handles.contains(original)) {
+            driver.switchTo().window(original);
+        }
+        return false;
+    }
+
+    private String read(WebDriver driver, String handle, Attribute attribute) {
+        String[] values = mWindows.get(handle);
+        if (values == null) {
+            values = new String[Attribute.values().length];
+            mWindows.put(handle, values);
+        }
+        String value = attribute == Attribute.TITLE ? driver.getTitle() : driver.getCurrentUrl();
+        values[attribute.ordinal()] = value;
+        return value;
+    }
+
+    private static String currentHandle(WebDriver driver) {
+        try {
+            return driver.getWindowHandle();
+        } catch (NoSuchWindowException e) {
+            // The current window has been closed
+            return null;
+        }
+    }
+
+    private static boolean matches(String value, String text) {
+        return value != null && value.toLowerCase().contains(text);
+    }
+
+}